@@ -1,6 +1,42 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.CRC32C;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 class Archiver {
+    //Files smaller than this are used to train the dictionary shared by the entries of an archive
+    private static final int SMALL_FILE_SIZE = 16 * 1024;
+
+    //Minimum number of small files for a dictionary to be worth storing
+    private static final int MIN_DICTIONARY_SAMPLES = 8;
+
+    //Deflater cannot look further back than 32 KiB, a bigger dictionary would not be used
+    private static final int MAX_DICTIONARY_SIZE = 32 * 1024;
+
+    //Bounds of the samples read to train the dictionary, so that a big folder does not read all its small files
+    private static final int MAX_SAMPLES = 64;
+    private static final int MAX_SAMPLE_BYTES = 8 * MAX_DICTIONARY_SIZE;
+
     private Archive.ArchiveTypes type;
 
     public Archiver(Archive.ArchiveTypes type) {
@@ -12,9 +48,13 @@ class Archiver {
         //Create Archive object
         Archive archive = new Archive(archiveName + type.getExtension(), type, compressionLevel);
 
+        //The folder may change while it is compressed, its subtree is read as it is now
+        Map<Folder, List<Node>> children = folder.snapshotChildren();
+
         //Compress the data of the folder and put it in the archive
         Compressor compressor = archive.getCompressor();
-        archive.setContent(buildArchiveRec(folder, compressor));
+        compressor.setDictionary(trainDictionary(folder, children));
+        archive.setContent(buildArchiveRec(folder, children, compressor));
 
         return archive;
     }
@@ -23,35 +63,146 @@ class Archiver {
      * Recursive call to compress an folder
      *
      * @param folder the folder to compress
+     * @param children the children of the folders of the subtree, read when the compression started
      * @param compressor the compressor
      * @return the compressed data
      */
-    private Object buildArchiveRec(Folder folder, Compressor compressor){
+    private Object buildArchiveRec(Folder folder, Map<Folder, List<Node>> children, Compressor compressor){
         ArrayList<Object> compressed = new ArrayList<>();
 
-        for(Node n : folder.getChildren()){
+        for(Node n : children.get(folder)){
             if(n instanceof Folder)
-                compressed.add(buildArchiveRec((Folder)n, compressor));
+                compressed.add(buildArchiveRec((Folder)n, children, compressor));
             else if (n instanceof FileNode)
-                compressed.add(compressor.compressFile(n.getName(), ((FileNode) n).getContent()));
+                compressed.add(compressFile(n.getName(), (FileNode) n, compressor));
             else if (n instanceof Alias)
-                compressed.add(compressor.compressFile(n.getName(), ((Alias) n).getFileNode().getContent()));
+                compressed.add(compressFile(n.getName(), ((Alias) n).getFileNode(), compressor));
             else if (n instanceof Archive)
-                compressed.add(((Archive) n).getContent());
+                compressed.add(copyNestedArchive((Archive) n));
         }
 
         return compressor.mergeCompressed(folder.getName(), compressed);
     }
 
+    //A file kept in chunks is compressed one chunk at a time, without joining its content in one string
+    private static Object compressFile(String name, FileNode file, Compressor compressor){
+        if(file.isChunked())
+            return compressor.compressFile(name, file.getRope());
+        return compressor.compressFile(name, file.getContent());
+    }
+
+    //The entries of an archive inside the folder, kept compressed in a folder named after the archive. They are copied:
+    //the nested archive keeps its own content, with the parents of its entries
+    private static Folder copyNestedArchive(Archive archive){
+        Folder content = (Folder) archive.getCompressor().copyContent(archive.getContent());
+        content.rename(archive.getName());
+        return content;
+    }
+
+    /**
+     * Build a dictionary from the small files of a folder, so that the parts they have in common (keys of configuration
+     * files, prefixes of log lines...) are not compressed again in every entry
+     *
+     * @param folder the folder to compress
+     * @param children the children of the folders of the subtree
+     * @return the dictionary, or null if the folder does not hold enough small files
+     */
+    private static byte[] trainDictionary(Folder folder, Map<Folder, List<Node>> children){
+        ArrayList<String> samples = collectSamples(folder, children);
+        if(samples.size() < MIN_DICTIONARY_SAMPLES)
+            return null;
+
+        //Count the number of files each line appears in
+        HashMap<String, Integer> counts = new HashMap<>();
+        for(String sample : samples)
+            for(String line : new HashSet<>(Arrays.asList(sample.split("\n"))))
+                counts.merge(line + "\n", 1, Integer::sum);
+
+        //The lines saving the most bytes go last: Deflater finds the end of the dictionary with shorter distances
+        ArrayList<Map.Entry<String, Integer>> lines = new ArrayList<>();
+        for(Map.Entry<String, Integer> count : counts.entrySet())
+            if(count.getValue() > 1)
+                lines.add(count);
+        lines.sort(Comparator.comparingLong(e -> (long) e.getKey().length() * e.getValue()));
+
+        ArrayDeque<byte[]> selected = new ArrayDeque<>();
+        int size = 0;
+        for(int i = lines.size() - 1; i >= 0 && size < MAX_DICTIONARY_SIZE; i--){
+            byte[] line = lines.get(i).getKey().getBytes(StandardCharsets.UTF_8);
+            if(size + line.length > MAX_DICTIONARY_SIZE)
+                continue;
+            selected.addFirst(line);
+            size += line.length;
+        }
+
+        if(size == 0)
+            return null;
+
+        ByteArrayOutputStream dictionary = new ByteArrayOutputStream(size);
+        for(byte[] line : selected)
+            dictionary.write(line, 0, line.length);
+        return dictionary.toByteArray();
+    }
+
+    //Get the contents of at most MAX_SAMPLES small files of a folder, each file having the same chance to be chosen
+    //(reservoir sampling). Only the chosen files are read, until MAX_SAMPLE_BYTES were read
+    private static ArrayList<String> collectSamples(Folder folder, Map<Folder, List<Node>> children){
+        ArrayList<FileNode> chosen = new ArrayList<>();
+        //Fixed seed: the same folder always gives the same dictionary
+        Random random = new Random(0);
+        long seen = 0;
+
+        ArrayDeque<Folder> folders = new ArrayDeque<>();
+        folders.push(folder);
+        while(!folders.isEmpty()){
+            for(Node n : children.get(folders.pop())){
+                if(n instanceof Folder)
+                    folders.push((Folder) n);
+                else if(n instanceof FileNode && n.getSize() < SMALL_FILE_SIZE){
+                    seen++;
+                    if(chosen.size() < MAX_SAMPLES)
+                        chosen.add((FileNode) n);
+                    else{
+                        long index = (long) (random.nextDouble() * seen);
+                        if(index < MAX_SAMPLES)
+                            chosen.set((int) index, (FileNode) n);
+                    }
+                }
+            }
+        }
+
+        ArrayList<String> samples = new ArrayList<>();
+        long bytes = 0;
+        for(FileNode file : chosen){
+            if(bytes >= MAX_SAMPLE_BYTES)
+                break;
+            samples.add(file.getContent());
+            bytes += file.getSize();
+        }
+        return samples;
+    }
+
 }
 
 abstract class Compressor{
     protected int compressionLevel;
 
+    //Dictionary shared by all the files compressed by this compressor, null if there is none
+    protected byte[] dictionary;
+
     public Compressor(int compressionLevel) {
         this.compressionLevel = compressionLevel;
     }
 
+    public void setDictionary(byte[] dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    //The compression level chosen by the user goes from 0 to 100, the levels of Deflater go from 0 to 9
+    protected int getDeflaterLevel() {
+        return Math.max(0, Math.min(9, Math.round(compressionLevel * 9 / 100f)));
+    }
+
     /**
      * Get a tree of ArchiveHeader representing the internal file structure of the archive
      *
@@ -77,6 +228,15 @@ abstract class Compressor{
      */
     public abstract Object compressFile(String fileName, String content);
 
+    /**
+     * Compress a file whose content is kept in chunks, reading one chunk at a time
+     *
+     * @param fileName the name of the file
+     * @param content the content of the file
+     * @return the compressed file
+     */
+    public abstract Object compressFile(String fileName, Rope content);
+
     /**
      * Merge several compressed files
      *
@@ -85,16 +245,94 @@ abstract class Compressor{
      * @return a compressed file
      */
     public abstract Object mergeCompressed(String folderName, ArrayList<Object> compressed);
+
+    /**
+     * Decompress an archive back into nodes of the file explorer
+     *
+     * @param folderName the name of the folder that will contain the decompressed files
+     * @param content the compressed data of the archive
+     * @return a folder containing the decompressed files, not yet attached to any tree
+     */
+    public abstract Folder extract(String folderName, Object content);
+
+    /**
+     * Build the table giving the location of every file inside the archive
+     *
+     * @param content the compressed data of the archive
+     * @return the path of each file inside the archive (e.g. "folder/file") with its compressed entry, in the order of
+     * the archive. Files with the same path are all listed
+     */
+    public abstract List<Map.Entry<String, Object>> buildEntryTable(Object content);
+
+    /**
+     * Decompress a single entry of an archive
+     *
+     * @param entry an entry taken from the table returned by buildEntryTable
+     * @return the content of the file
+     */
+    public abstract String decompressEntry(Object entry);
+
+    /**
+     * Get the size of the compressed data
+     *
+     * @param content the compressed data of the archive
+     * @return the size in bytes of the compressed data
+     */
+    public abstract long getCompressedSize(Object content);
+
+    /**
+     * Get the size of the data once decompressed
+     *
+     * @param content the compressed data of the archive
+     * @return the size in bytes of the decompressed files
+     */
+    public abstract long getUncompressedSize(Object content);
+
+    /**
+     * Write the archive in the real format of its type
+     *
+     * @param content the compressed data of the archive
+     * @param out the stream receiving the archive file
+     * @throws IOException if the archive cannot be written
+     */
+    public abstract void writeArchive(Object content, OutputStream out) throws IOException;
+
+    /**
+     * Get the hash of the files inside the archive
+     *
+     * @param content the compressed data of the archive
+     * @return a hash that is the same for two archives containing the same files
+     */
+    public abstract byte[] getContentHash(Object content);
+
+    /**
+     * Check that the compressed data of every file inside the archive is intact
+     *
+     * @param content the compressed data of the archive
+     * @return the paths of the corrupted files inside the archive (e.g. "folder/file"), sorted, empty if there is none
+     */
+    public abstract List<String> verify(Object content);
 }
 
 /**
  * The implementation here uses Folder and FileNode because it's simpler, but a real implementation would use classes
  * independent of the rest of the program.
  *
- * The implementation itself isn't very important for this project, we just put everything into files and folders that
- * we casted to Object.
+ * The implementation itself isn't very important for this project, we just put everything into folders and
+ * ArchiveEntry (files whose content is kept compressed) that we casted to Object.
+ *
+ * Each entry is compressed adaptively: a sample of the content is compressed first, the content is stored as-is if the
+ * sample does not shrink, and the level is lowered if compressing the whole content at the chosen level would be
+ * slower than TARGET_THROUGHPUT.
  */
 class ZipCompressor extends Compressor{
+    private static final int SAMPLE_SIZE = 64 * 1024;
+
+    //Samples that do not shrink below this ratio are considered incompressible
+    private static final double MIN_RATIO = 0.95;
+
+    //Bytes per second
+    private static final double TARGET_THROUGHPUT = 50 * 1024 * 1024;
 
     public ZipCompressor(int compressionLevel) {
         super(compressionLevel);
@@ -111,8 +349,16 @@ class ZipCompressor extends Compressor{
         ArchiveHeader header = new ArchiveHeader(node.getName());
 
         if(node instanceof Folder)
-            for(Node child : ((Folder) node).getChildren())
-                header.addChild(buildHeader(child));
+            for(Node child : ((Folder) node).getChildren()){
+                ArchiveHeader childHeader = buildHeader(child);
+                header.addChild(childHeader);
+
+                //The entries share the dictionary, it is kept once in the header of their archive
+                if(header.getDictionary() == null)
+                    header.setDictionary(childHeader.getDictionary());
+            }
+        else if(node instanceof ArchiveEntry)
+            header.setDictionary(((ArchiveEntry) node).getDictionary());
 
         return header;
     }
@@ -131,24 +377,274 @@ class ZipCompressor extends Compressor{
     @Override
     public Object compressFile(String fileName, String content) {
         Folder f = new Folder("tmp");
-        f.addChild(new FileNode(fileName, content));
+        f.addChild(compressEntry(fileName, Collections.singletonList(content.getBytes(StandardCharsets.UTF_8))
+                .iterator()));
         return f;
     }
 
+    @Override
+    public Object compressFile(String fileName, Rope content) {
+        Folder f = new Folder("tmp");
+        f.addChild(compressEntry(fileName, content.utf8Chunks()));
+        return f;
+    }
+
+    /**
+     * Compress the content of a file, choosing the method and the level from a sample of the content
+     *
+     * @param fileName the name of the file
+     * @param parts the content of the file, in UTF-8, read one part at a time
+     * @return the compressed entry
+     */
+    protected ArchiveEntry compressEntry(String fileName, Iterator<byte[]> parts){
+        //Only the beginning of the content is read to take the decisions
+        byte[] head = parts.hasNext() ? parts.next() : new byte[0];
+        if(head.length < SAMPLE_SIZE && parts.hasNext()){
+            ByteArrayOutputStream beginning = new ByteArrayOutputStream(2 * SAMPLE_SIZE);
+            beginning.write(head, 0, head.length);
+            while(beginning.size() < SAMPLE_SIZE && parts.hasNext()){
+                byte[] part = parts.next();
+                beginning.write(part, 0, part.length);
+            }
+            head = beginning.toByteArray();
+        }
+        boolean isWhole = !parts.hasNext();
+
+        int level = getDeflaterLevel();
+        if(level == Deflater.NO_COMPRESSION || head.length == 0)
+            return store(fileName, head, parts);
+
+        //The dictionary is only useful for small files, the big ones have enough content to find their own matches
+        byte[] dictionary = isWhole && head.length <= SAMPLE_SIZE ? this.dictionary : null;
+
+        int sampleLength = Math.min(head.length, SAMPLE_SIZE);
+        long start = System.nanoTime();
+        byte[] sample = deflate(head, sampleLength, level, dictionary);
+        double seconds = Math.max(System.nanoTime() - start, 1) / 1e9;
+
+        //Already compressed or random data: compressing it again would only cost time
+        if(sample.length >= sampleLength * MIN_RATIO)
+            return store(fileName, head, parts);
+
+        //Small files fit in the sample, which is then the compressed content
+        if(isWhole && head.length == sampleLength)
+            return new ArchiveEntry(fileName, sample, head.length, ArchiveEntry.Method.DEFLATED, level, dictionary);
+
+        //Too slow at this level to reach the target throughput
+        if(sampleLength / seconds < TARGET_THROUGHPUT)
+            level = Deflater.BEST_SPEED;
+
+        Deflater deflater = new Deflater(level);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(head.length / 2 + 64);
+            byte[] buffer = new byte[SAMPLE_SIZE];
+            long size = 0;
+
+            for(byte[] part = head; part != null; part = parts.hasNext() ? parts.next() : null){
+                deflater.setInput(part);
+                size += part.length;
+                while(!deflater.needsInput())
+                    out.write(buffer, 0, deflater.deflate(buffer));
+            }
+
+            deflater.finish();
+            while(!deflater.finished())
+                out.write(buffer, 0, deflater.deflate(buffer));
+
+            return new ArchiveEntry(fileName, out.toByteArray(), size, ArchiveEntry.Method.DEFLATED, level);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    //Entry holding the content as it is
+    private static ArchiveEntry store(String fileName, byte[] head, Iterator<byte[]> parts){
+        byte[] bytes = head;
+
+        if(parts.hasNext()){
+            ByteArrayOutputStream out = new ByteArrayOutputStream(2 * head.length);
+            out.write(head, 0, head.length);
+            while(parts.hasNext()){
+                byte[] part = parts.next();
+                out.write(part, 0, part.length);
+            }
+            bytes = out.toByteArray();
+        }
+
+        return new ArchiveEntry(fileName, bytes, bytes.length, ArchiveEntry.Method.STORED, 0);
+    }
+
+    protected static byte[] deflate(byte[] bytes, int length, int level, byte[] dictionary){
+        Deflater deflater = new Deflater(level);
+        try {
+            if(dictionary != null)
+                deflater.setDictionary(dictionary);
+            deflater.setInput(bytes, 0, length);
+            deflater.finish();
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream(length / 2 + 64);
+            byte[] buffer = new byte[SAMPLE_SIZE];
+            while(!deflater.finished())
+                out.write(buffer, 0, deflater.deflate(buffer));
+
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
     @Override
     public Object mergeCompressed(String folderName, ArrayList<Object> compressed) {
         Folder f = new Folder(folderName);
 
+        //Gathered first, so that the list of children of the folder is copied only once
+        ArrayList<Node> children = new ArrayList<>();
         for(Object o : compressed) {
             Folder f2 = (Folder) o;
             if(!f2.getName().equals("tmp"))
-                f.addChild(f2);
+                children.add(f2);
             else
-                for (Node n : ((Folder) o).getChildren())
-                    f.addChild(n);
+                children.addAll(f2.getChildren());
         }
+        f.addChildren(children);
         return f;
     }
+
+    @Override
+    public Folder extract(String folderName, Object content) {
+        //The entries are independent from each other, so decompress the files in parallel whatever their depth, like
+        //verify. The order of the entry table is kept by the collect
+        List<String> contents = buildEntryTable(content).parallelStream()
+                .map(e -> decompressEntry(e.getValue()))
+                .collect(Collectors.toList());
+
+        //Then rebuild the folders, visiting the entries in the order of the table
+        Folder extracted = new Folder(folderName);
+        extracted.addChildren(extractEntries(((Folder) content).getChildren(), contents.iterator()));
+
+        return extracted;
+    }
+
+    //Recursive call to build the nodes corresponding to entries, taking the decompressed files in the order of the
+    //entry table. The files are plain files holding the decompressed content, they no longer depend on the archive
+    private static List<Node> extractEntries(List<Node> entries, Iterator<String> contents){
+        ArrayList<Node> nodes = new ArrayList<>();
+
+        for(Node entry : entries){
+            if(entry instanceof Folder){
+                Folder folder = new Folder(entry.getName());
+                folder.addChildren(extractEntries(((Folder) entry).getChildren(), contents));
+                nodes.add(folder);
+            }
+            else if(entry instanceof FileNode)
+                nodes.add(new FileNode(entry.getName(), contents.next()));
+        }
+
+        return nodes;
+    }
+
+    @Override
+    public List<Map.Entry<String, Object>> buildEntryTable(Object content) {
+        //Every entry is listed, even when another file of the same folder has the same name
+        ArrayList<Map.Entry<String, Object>> table = new ArrayList<>();
+        for(Node n : ((Folder) content).getChildren())
+            collectEntries(n, "", table);
+
+        return table;
+    }
+
+    @Override
+    public String decompressEntry(Object entry) {
+        return ((FileNode) entry).getContent();
+    }
+
+    @Override
+    public long getCompressedSize(Object content) {
+        long size = 0;
+
+        for(Node n : ((Folder) content).getChildren()){
+            if(n instanceof Folder)
+                size += getCompressedSize(n);
+            else if(n instanceof ArchiveEntry)
+                size += ((ArchiveEntry) n).getCompressedSize();
+            else
+                size += n.getSize();
+        }
+
+        return size;
+    }
+
+    @Override
+    public long getUncompressedSize(Object content) {
+        return ((Folder) content).getSize();
+    }
+
+    //The content is a folder, its hash is cached and inherited by the copies made with copyContent
+    @Override
+    public byte[] getContentHash(Object content) {
+        return ((Folder) content).getHash();
+    }
+
+    //Each entry is checked against the checksum recorded when it was compressed, without decompressing it
+    @Override
+    public List<String> verify(Object content) {
+        //The entries are independent from each other, so check them in parallel
+        return buildEntryTable(content).parallelStream()
+                .filter(e -> e.getValue() instanceof ArchiveEntry && !((ArchiveEntry) e.getValue()).verify())
+                .map(Map.Entry::getKey)
+                .sorted()
+                .collect(Collectors.toList());
+    }
+
+    //Recursive call to list the files of an archive with their paths. The archives it contains are folders named after
+    //them
+    private static void collectEntries(Node node, String prefix, ArrayList<Map.Entry<String, Object>> entries){
+        String path = prefix + node.getName();
+
+        if(node instanceof Folder)
+            for(Node child : ((Folder) node).getChildren())
+                collectEntries(child, path + "/", entries);
+        else if(node instanceof FileNode)
+            entries.add(new AbstractMap.SimpleImmutableEntry<>(path, node));
+    }
+
+    @Override
+    public void writeArchive(Object content, OutputStream out) throws IOException {
+        ZipOutputStream zip = new ZipOutputStream(out);
+        zip.setLevel(getDeflaterLevel());
+
+        for(Node n : ((Folder) content).getChildren())
+            writeZipEntry(zip, n, "");
+
+        zip.finish();
+    }
+
+    //Path of an entry inside the archive. A name that is not a plain file name would be extracted outside of the
+    //directory receiving the archive
+    protected static String entryPath(String prefix, Node entry) throws IOException {
+        if(!Node.isSafeName(entry.getName()))
+            throw new IOException("Invalid name for an archive entry: " + prefix + entry.getName());
+        return prefix + entry.getName();
+    }
+
+    //Recursive call to write the entries of a zip file
+    private void writeZipEntry(ZipOutputStream zip, Node entry, String prefix) throws IOException {
+        String path = entryPath(prefix, entry);
+
+        if(entry instanceof Folder){
+            zip.putNextEntry(new ZipEntry(path + "/"));
+            zip.closeEntry();
+
+            for(Node child : ((Folder) entry).getChildren())
+                writeZipEntry(zip, child, path + "/");
+        }
+        else{
+            //The content is decompressed or read a buffer at a time, never as a whole
+            zip.putNextEntry(new ZipEntry(path));
+            ((FileNode) entry).writeTo(zip);
+            zip.closeEntry();
+        }
+    }
 }
 
 /**
@@ -161,6 +657,8 @@ class RarCompressor extends ZipCompressor{
     public RarCompressor(int compressionLevel) {
         super(compressionLevel);
     }
+
+    //The Rar format can only be written by the proprietary tool, the archive is written in the zip format
 }
 
 /**
@@ -169,10 +667,117 @@ class RarCompressor extends ZipCompressor{
  * A real implementation would extends Compressor and use the Tar algorithm for compression.
  */
 class TarCompressor extends ZipCompressor{
+    private static final int BLOCK_SIZE = 512;
 
     public TarCompressor(int compressionLevel) {
         super(compressionLevel);
     }
+
+    //Tar does not compress, the compression level is ignored
+    @Override
+    public void writeArchive(Object content, OutputStream out) throws IOException {
+        for(Node n : ((Folder) content).getChildren())
+            writeTarEntry(out, n, "");
+
+        //End of archive: two empty blocks
+        out.write(new byte[2 * BLOCK_SIZE]);
+        out.flush();
+    }
+
+    //Recursive call to write the entries of a tar file
+    private void writeTarEntry(OutputStream out, Node entry, String prefix) throws IOException {
+        String path = entryPath(prefix, entry);
+
+        if(entry instanceof Folder){
+            out.write(buildTarHeader(path + "/", 0, '5'));
+
+            for(Node child : ((Folder) entry).getChildren())
+                writeTarEntry(out, child, path + "/");
+        }
+        else{
+            //The size is written before the content, which is then streamed without being held in memory
+            long size = entry.getSize();
+            out.write(buildTarHeader(path, size, '0'));
+            long written = ((FileNode) entry).writeTo(out);
+            if(written != size)
+                throw new IOException("Size of " + path + " changed while it was archived");
+
+            //Data is padded to a whole number of blocks
+            int padding = (int) ((BLOCK_SIZE - size % BLOCK_SIZE) % BLOCK_SIZE);
+            out.write(new byte[padding]);
+        }
+    }
+
+    /**
+     * Build the ustar header of an entry
+     *
+     * @param path the path of the entry inside the archive
+     * @param size the size of the data of the entry
+     * @param type '0' for a file, '5' for a directory
+     * @return the header block
+     * @throws IOException if the path is too long for the ustar format
+     */
+    private byte[] buildTarHeader(String path, long size, char type) throws IOException {
+        byte[] header = new byte[BLOCK_SIZE];
+        byte[] name = path.getBytes(StandardCharsets.UTF_8);
+        byte[] namePrefix = new byte[0];
+
+        //Paths longer than 100 bytes are split between the prefix and the name fields on a '/'
+        if(name.length > 100){
+            int split = path.lastIndexOf('/', path.length() - 2);
+            if(split == -1)
+                throw new IOException("Path too long for a tar archive: " + path);
+            namePrefix = path.substring(0, split).getBytes(StandardCharsets.UTF_8);
+            name = path.substring(split + 1).getBytes(StandardCharsets.UTF_8);
+            if(name.length > 100 || namePrefix.length > 155)
+                throw new IOException("Path too long for a tar archive: " + path);
+        }
+
+        System.arraycopy(name, 0, header, 0, name.length);
+        putOctal(header, 100, 8, type == '5' ? 0755 : 0644);
+        putOctal(header, 108, 8, 0);
+        putOctal(header, 116, 8, 0);
+        putSize(header, 124, 12, size);
+        putOctal(header, 136, 12, System.currentTimeMillis() / 1000);
+        header[156] = (byte) type;
+        System.arraycopy(("ustar\0" + "00").getBytes(StandardCharsets.US_ASCII), 0, header, 257, 8);
+        System.arraycopy(namePrefix, 0, header, 345, namePrefix.length);
+
+        //The checksum is computed with the checksum field filled with spaces
+        for(int i = 148; i < 156; i++)
+            header[i] = ' ';
+        long checksum = 0;
+        for(byte b : header)
+            checksum += b & 0xff;
+        putOctal(header, 148, 7, checksum);
+
+        return header;
+    }
+
+    //Write a size in octal if it fits, in base 256 otherwise (GNU extension, for the entries of 8 GiB or more): the
+    //first byte is flagged with 0x80 and the value follows in big endian
+    private static void putSize(byte[] header, int offset, int length, long value) throws IOException {
+        if(value < 1L << (3 * (length - 1))){
+            putOctal(header, offset, length, value);
+            return;
+        }
+
+        header[offset] = (byte) 0x80;
+        for(int i = offset + length - 1; i > offset; i--){
+            header[i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+
+    //Write a number in octal, padded with zeros and terminated by a NUL
+    private static void putOctal(byte[] header, int offset, int length, long value) throws IOException {
+        String octal = String.format("%0" + (length - 1) + "o", value);
+        if(octal.length() > length - 1)
+            throw new IOException("Value too big for a tar header field: " + value);
+        byte[] bytes = octal.getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(bytes, 0, header, offset, length - 1);
+        header[offset + length - 1] = 0;
+    }
 }
 
 /**
@@ -181,6 +786,7 @@ class TarCompressor extends ZipCompressor{
 class ArchiveHeader{
     private ArrayList<ArchiveHeader> children = new ArrayList<>();
     private String name;
+    private byte[] dictionary;
 
     public ArchiveHeader(String name) {
         this.name = name;
@@ -197,4 +803,294 @@ class ArchiveHeader{
     public String getName() {
         return name;
     }
-}
\ No newline at end of file
+
+    public byte[] getDictionary() {
+        return dictionary;
+    }
+
+    public void setDictionary(byte[] dictionary) {
+        this.dictionary = dictionary;
+    }
+}
+
+/**
+ * File stored inside an archive. Its content is kept compressed and is only decompressed when it is read
+ */
+class ArchiveEntry extends FileNode{
+    //Some JVMs cannot allocate arrays of exactly Integer.MAX_VALUE elements
+    private static final long MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+    //Size of the buffer used to decompress a content while it is written
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    public enum Method{
+        STORED,
+        DEFLATED
+    }
+
+    private volatile byte[] data;
+    private int compressedSize;
+    private Method method;
+    //Level of the Deflater that compressed the data
+    private int level;
+
+    //Shared with the other entries of the archive, null if the entry was compressed without dictionary
+    private byte[] dictionary;
+
+    //CRC32C of the compressed content, taken when the entry is built
+    private int checksum;
+
+    /**
+     * @param name the name of the file
+     * @param data the compressed content
+     * @param size the size of the content once decompressed
+     * @param method the method used to compress the content
+     * @param level the Deflater level used, 0 if the content is stored
+     */
+    public ArchiveEntry(String name, byte[] data, long size, Method method, int level) {
+        this(name, data, size, method, level, null, checksum(data));
+    }
+
+    /**
+     * @param name the name of the file
+     * @param data the compressed content
+     * @param size the size of the content once decompressed
+     * @param method the method used to compress the content
+     * @param level the Deflater level used, 0 if the content is stored
+     * @param dictionary the dictionary used to compress the content, or null
+     */
+    public ArchiveEntry(String name, byte[] data, long size, Method method, int level, byte[] dictionary) {
+        this(name, data, size, method, level, dictionary, checksum(data));
+    }
+
+    private ArchiveEntry(String name, byte[] data, long size, Method method, int level, byte[] dictionary, int checksum) {
+        super(name, size);
+        this.data = data;
+        this.compressedSize = data.length;
+        this.method = method;
+        this.level = level;
+        this.dictionary = dictionary;
+        this.checksum = checksum;
+        ContentStore.getInstance().touch(this, data.length);
+    }
+
+    /**
+     * Entry whose checksum was recorded before, e.g. in a journal. The checksum is not computed again, so that a
+     * corruption since then is detected
+     *
+     * @param name the name of the file
+     * @param data the compressed content
+     * @param size the size of the content once decompressed
+     * @param method the method used to compress the content
+     * @param level the Deflater level used, 0 if the content is stored
+     * @param dictionary the dictionary used to compress the content, or null
+     * @param checksum the CRC32C of the compressed content
+     * @return the entry
+     */
+    public static ArchiveEntry restore(String name, byte[] data, long size, Method method, int level,
+                                       byte[] dictionary, int checksum) {
+        return new ArchiveEntry(name, data, size, method, level, dictionary, checksum);
+    }
+
+    private static int checksum(byte[] data) {
+        CRC32C crc = new CRC32C();
+        crc.update(data, 0, data.length);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Check the compressed content against its checksum. The content is not decompressed, and an evicted content is
+     * streamed from the spill file instead of being reloaded in the heap
+     *
+     * @return false if the content is corrupted or cannot be read
+     */
+    public boolean verify() {
+        CRC32C crc = new CRC32C();
+
+        //The spill location is set before the content is dropped, and never changes
+        byte[] data = this.data;
+        if(data != null)
+            crc.update(data, 0, data.length);
+        else{
+            try {
+                ContentStore.getInstance().update(spilled, crc);
+            } catch (IOException e) {
+                Logger.getInstance().log(Logger.Level.ERROR, "ArchiveEntry.verify", e);
+                return false;
+            }
+        }
+
+        return (int) crc.getValue() == checksum;
+    }
+
+    @Override
+    public String getContent() {
+        return new String(getBytes(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Decompressed content
+     *
+     * @return the content
+     * @throws IllegalStateException if the compressed content is corrupted, or too big for an array
+     */
+    public byte[] getBytes() {
+        if(getSize() > MAX_ARRAY_SIZE)
+            throw new IllegalStateException("Archive entry " + name + " is too big to be decompressed in memory");
+
+        byte[] data = getData();
+        if(method == Method.STORED){
+            if(data.length != getSize())
+                throw new IllegalStateException("Corrupted archive entry " + name + ": wrong size");
+            return data;
+        }
+
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            byte[] bytes = new byte[(int) getSize()];
+            int offset = 0;
+            boolean dictionarySet = false;
+            while(offset < bytes.length && !inflater.finished()){
+                int inflated = inflater.inflate(bytes, offset, bytes.length - offset);
+                offset += inflated;
+
+                //Inflater returns 0 forever on a truncated content or a wrong dictionary, instead of failing
+                if(inflater.needsDictionary()){
+                    if(dictionary == null || dictionarySet)
+                        throw new DataFormatException("missing dictionary");
+                    inflater.setDictionary(dictionary);
+                    dictionarySet = true;
+                }
+                else if(inflated == 0 && inflater.needsInput())
+                    throw new DataFormatException("truncated content");
+            }
+
+            if(offset < bytes.length)
+                throw new DataFormatException("content shorter than its size");
+            return bytes;
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupted archive entry " + name, e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Decompress the content into a stream, a buffer at a time, so that entries bigger than the heap or than an array
+     * can be written
+     *
+     * @param out the stream receiving the content
+     * @return the number of bytes written
+     * @throws IOException if the compressed content is corrupted, or cannot be written
+     */
+    @Override
+    public long writeTo(OutputStream out) throws IOException {
+        byte[] data = getData();
+        if(method == Method.STORED){
+            if(data.length != getSize())
+                throw new IOException("Corrupted archive entry " + name + ": wrong size");
+            out.write(data);
+            return data.length;
+        }
+
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            byte[] buffer = new byte[(int) Math.max(1, Math.min(WRITE_BUFFER_SIZE, getSize()))];
+            long written = 0;
+            boolean dictionarySet = false;
+            while(!inflater.finished()){
+                int inflated = inflater.inflate(buffer);
+                written += inflated;
+                if(written > getSize())
+                    throw new DataFormatException("content longer than its size");
+                out.write(buffer, 0, inflated);
+
+                //Same checks as getBytes: Inflater returns 0 forever instead of failing
+                if(inflater.needsDictionary()){
+                    if(dictionary == null || dictionarySet)
+                        throw new DataFormatException("missing dictionary");
+                    inflater.setDictionary(dictionary);
+                    dictionarySet = true;
+                }
+                else if(inflated == 0 && inflater.needsInput())
+                    throw new DataFormatException("truncated content");
+            }
+
+            if(written < getSize())
+                throw new DataFormatException("content shorter than its size");
+            return written;
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupted archive entry " + name, e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    @Override
+    protected void updateDigest(MessageDigest digest) {
+        digest.update(FILE_HASH);
+        digest.update(getBytes());
+    }
+
+    //Compressed content, reloaded from the spill file if it was evicted
+    public byte[] getData() {
+        byte[] data = this.data;
+        if(data == null){
+            synchronized (this){
+                if(this.data == null){
+                    try {
+                        this.data = ContentStore.getInstance().read(spilled);
+                    } catch (IOException e) {
+                        throw new IllegalStateException("Cannot reload archive entry " + name, e);
+                    }
+                }
+                data = this.data;
+            }
+        }
+
+        ContentStore.getInstance().touch(this, data.length);
+        return data;
+    }
+
+    @Override
+    long evict(ContentStore store) {
+        synchronized (this){
+            byte[] data = this.data;
+            if(data == null)
+                return 0;
+
+            try {
+                if(spilled == null)
+                    spilled = store.write(data);
+            } catch (IOException e) {
+                Logger.getInstance().log(Logger.Level.ERROR, "ArchiveEntry.evict", e);
+                return 0;
+            }
+
+            this.data = null;
+            return data.length;
+        }
+    }
+
+    public Method getMethod() {
+        return method;
+    }
+
+    public int getDeflaterLevel() {
+        return level;
+    }
+
+    public long getCompressedSize() {
+        return compressedSize;
+    }
+
+    public byte[] getDictionary() {
+        return dictionary;
+    }
+
+    public int getChecksum() {
+        return checksum;
+    }
+}
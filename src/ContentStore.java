@@ -0,0 +1,402 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.Checksum;
+
+/**
+ * Budget of heap for the contents of the files and the entries of the archives.
+ *
+ * When the contents in memory take more than the budget, the least recently accessed ones are written to a spill file
+ * and dropped from the heap, the node reloads its content from the spill file the next time it is read. A content is
+ * written only once: it never changes, so the copy in the spill file stays valid when it is evicted again.
+ *
+ * The recency is approximated with the CLOCK algorithm: an access only sets a flag on the content, without any lock,
+ * so that parallel readers are not serialized. The eviction visits the contents in turn, clears the flags that are set
+ * and evicts the contents whose flag was not set since its last visit.
+ *
+ * The contents kept in chunks are counted the same way. They are written to the spill file one chunk at a time, and
+ * split in chunks again when they are reloaded.
+ *
+ * The copies in the spill file that no node holds anymore are found through weak references. Once they take more than
+ * half of the spill file, the copies still used are moved to the beginning of the file and the file is truncated.
+ */
+class ContentStore {
+    private static final ContentStore INSTANCE = new ContentStore();
+
+    //Bytes of content allowed in the heap
+    private static volatile long BUDGET = Runtime.getRuntime().maxMemory() / 4;
+
+    //Size of the buffer used to stream a content from the spill file
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
+    //Smaller spill files are never compacted
+    private static final long MIN_COMPACTION_SIZE = 16 * 1024 * 1024;
+
+    //File receiving the evicted contents, a temporary file if none is given
+    private static volatile File SPILL_FILE;
+
+    /**
+     * Position of an evicted content in the spill file
+     */
+    static class Location {
+        //Changed when the spill file is compacted
+        private volatile long offset;
+        private final int length;
+
+        Location(long offset, int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /**
+     * A content in the heap
+     */
+    private static class Resident {
+        private final FileNode node;
+
+        //Size counted in the budget
+        private final long bytes;
+
+        //Set by the accesses, cleared by the eviction
+        private volatile boolean referenced = true;
+
+        Resident(FileNode node, long bytes) {
+            this.node = node;
+            this.bytes = bytes;
+        }
+    }
+
+    private ConcurrentHashMap<FileNode, Resident> resident = new ConcurrentHashMap<>();
+    private AtomicLong residentBytes = new AtomicLong();
+
+    //Order in which the eviction visits the contents. May hold contents that were replaced or removed since
+    private ConcurrentLinkedQueue<Resident> clock = new ConcurrentLinkedQueue<>();
+
+    //Only one thread evicts at a time, the others do not wait for it
+    private ReentrantLock evictionLock = new ReentrantLock();
+
+    //Written while holding the monitor of the store
+    private volatile FileChannel spill;
+    private long spillEnd = 0;
+
+    //Copies in the spill file, forgotten once no node holds them
+    private Set<Location> locations = Collections.newSetFromMap(new WeakHashMap<>());
+    private long nextCompactionCheck = MIN_COMPACTION_SIZE;
+
+    //The reads of the spill file hold the read lock, the compaction holds the write lock while it moves the contents
+    private ReentrantReadWriteLock compactionLock = new ReentrantReadWriteLock();
+
+    private AtomicLong evictions = new AtomicLong();
+    private AtomicLong evictedBytes = new AtomicLong();
+    private AtomicLong reloads = new AtomicLong();
+    private AtomicLong reloadedBytes = new AtomicLong();
+    private AtomicLong compactions = new AtomicLong();
+
+    private ContentStore(){}
+
+    public static ContentStore getInstance() {
+        return INSTANCE;
+    }
+
+    public static void setBudget(long budget) {
+        BUDGET = budget;
+    }
+
+    //Must be called before the first eviction. The file must not exist
+    public static void setSpillFile(File spillFile) {
+        SPILL_FILE = spillFile;
+    }
+
+    /**
+     * Record an access to the content of a file, and evict the least recently accessed contents if the budget is
+     * exceeded
+     *
+     * @param node the file whose content is in the heap
+     * @param bytes the size of the content
+     */
+    public void touch(FileNode node, long bytes) {
+        Resident current = resident.get(node);
+        if(current != null && current.bytes == bytes){
+            //Most accesses end here: no lock, and no write if the flag is already set
+            if(!current.referenced)
+                current.referenced = true;
+            return;
+        }
+
+        Resident added = new Resident(node, bytes);
+        Resident previous = resident.put(node, added);
+        residentBytes.addAndGet(bytes - (previous == null ? 0 : previous.bytes));
+        clock.add(added);
+
+        if(residentBytes.get() > BUDGET)
+            evict(node);
+    }
+
+    //Evict contents until the budget is respected. The content just accessed is kept, even if it is bigger than the
+    //whole budget
+    private void evict(FileNode accessed) {
+        if(!evictionLock.tryLock())
+            return;
+
+        ArrayList<FileNode> victims = new ArrayList<>();
+        try {
+            //Each content is visited at most twice: once to clear its flag, once to evict it
+            int visits = 2 * (resident.size() + 1);
+            while(residentBytes.get() > BUDGET && visits > 0){
+                Resident r = clock.poll();
+                if(r == null)
+                    break;
+                if(resident.get(r.node) != r)
+                    continue;
+
+                visits--;
+                if(r.node == accessed || r.referenced){
+                    r.referenced = r.node == accessed;
+                    clock.add(r);
+                }
+                else if(resident.remove(r.node, r)){
+                    residentBytes.addAndGet(-r.bytes);
+                    victims.add(r.node);
+                }
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+
+        //The nodes are locked to evict them, never while holding a lock of the store
+        long freed = 0;
+        for(FileNode victim : victims)
+            freed += victim.evict(this);
+
+        if(freed > 0){
+            evictions.addAndGet(victims.size());
+            evictedBytes.addAndGet(freed);
+            Logger.getInstance().log(Logger.Level.DEBUG, () -> "ContentStore: " + victims.size() + " contents evicted, " + getMetrics());
+        }
+    }
+
+    //Stop counting a content that is no longer held by its node
+    public void remove(FileNode node) {
+        Resident r = resident.remove(node);
+        if(r != null)
+            residentBytes.addAndGet(-r.bytes);
+    }
+
+    /**
+     * Append a content to the spill file
+     *
+     * @param bytes the content
+     * @return where the content was written
+     * @throws IOException if the spill file cannot be written
+     */
+    public Location write(byte[] bytes) throws IOException {
+        return write(Collections.singletonList(bytes).iterator(), bytes.length);
+    }
+
+    /**
+     * Append a content given in parts to the spill file
+     *
+     * @param parts the parts of the content, in order
+     * @param length the total length of the parts
+     * @return where the content was written
+     * @throws IOException if the spill file cannot be written, or the content is too big for it
+     */
+    public synchronized Location write(Iterator<byte[]> parts, long length) throws IOException {
+        if(length > Integer.MAX_VALUE)
+            throw new IOException("Content of " + length + " bytes too big for the spill file");
+        if(spill == null)
+            spill = openSpill();
+
+        long offset = spillEnd;
+        while(parts.hasNext()){
+            ByteBuffer buffer = ByteBuffer.wrap(parts.next());
+            while(buffer.hasRemaining())
+                spillEnd += spill.write(buffer, spillEnd);
+        }
+
+        Location location = new Location(offset, (int) (spillEnd - offset));
+        locations.add(location);
+
+        if(spillEnd >= nextCompactionCheck)
+            compactIfNeeded();
+
+        return location;
+    }
+
+    /**
+     * Read back a content from the spill file
+     *
+     * @param location where the content was written
+     * @return the content
+     * @throws IOException if the spill file cannot be read
+     */
+    public byte[] read(Location location) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(location.length);
+
+        //Positional reads do not change the position of the channel, they can run in parallel
+        compactionLock.readLock().lock();
+        try {
+            while(buffer.hasRemaining()){
+                int read = spill.read(buffer, location.offset + buffer.position());
+                if(read < 0)
+                    throw new IOException("Spill file truncated");
+            }
+        } finally {
+            compactionLock.readLock().unlock();
+        }
+
+        reloads.incrementAndGet();
+        reloadedBytes.addAndGet(location.length);
+        return buffer.array();
+    }
+
+    /**
+     * Feed a content of the spill file to a checksum, a buffer at a time instead of reading it whole
+     *
+     * @param location where the content was written
+     * @param checksum the checksum to update
+     * @throws IOException if the spill file cannot be read
+     */
+    public void update(Location location, Checksum checksum) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(Math.min(location.length, STREAM_BUFFER_SIZE));
+
+        compactionLock.readLock().lock();
+        try {
+            long read = 0;
+            while(read < location.length){
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), location.length - read));
+                if(spill.read(buffer, location.offset + read) < 0)
+                    throw new IOException("Spill file truncated");
+
+                buffer.flip();
+                read += buffer.remaining();
+                checksum.update(buffer);
+            }
+        } finally {
+            compactionLock.readLock().unlock();
+        }
+    }
+
+    //Compact the spill file if less than half of it is still used. Must hold the monitor of the store
+    private void compactIfNeeded() throws IOException {
+        long live = 0;
+        for(Location location : locations)
+            live += location.length;
+
+        if(live <= spillEnd / 2)
+            compact();
+
+        //Checked again once the file grew by a quarter, so that the cost of the checks is amortized
+        nextCompactionCheck = Math.max(MIN_COMPACTION_SIZE, spillEnd + spillEnd / 4);
+    }
+
+    //Move the copies still used to the beginning of the file, in the order of the file: a copy only moves backwards,
+    //over space that is free or was already moved. Must hold the monitor of the store
+    private void compact() throws IOException {
+        ArrayList<Location> live = new ArrayList<>(locations);
+        live.sort(Comparator.comparingLong(l -> l.offset));
+
+        compactionLock.writeLock().lock();
+        try {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(STREAM_BUFFER_SIZE);
+            long end = 0;
+            for(Location location : live){
+                if(location.offset != end)
+                    move(location.offset, end, location.length, buffer);
+                location.offset = end;
+                end += location.length;
+            }
+
+            spill.truncate(end);
+            final long oldEnd = spillEnd;
+            final long newEnd = end;
+            Logger.getInstance().log(Logger.Level.DEBUG, () -> "ContentStore: spill file compacted from " + oldEnd
+                    + " to " + newEnd + " bytes");
+            spillEnd = end;
+            compactions.incrementAndGet();
+        } finally {
+            compactionLock.writeLock().unlock();
+        }
+    }
+
+    private void move(long from, long to, int length, ByteBuffer buffer) throws IOException {
+        long moved = 0;
+        while(moved < length){
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), length - moved));
+            while(buffer.hasRemaining())
+                if(spill.read(buffer, from + moved + buffer.position()) < 0)
+                    throw new IOException("Spill file truncated");
+
+            buffer.flip();
+            int chunk = buffer.remaining();
+            while(buffer.hasRemaining())
+                spill.write(buffer, to + moved + buffer.position());
+            moved += chunk;
+        }
+    }
+
+    private FileChannel openSpill() throws IOException {
+        File file = SPILL_FILE;
+
+        //A file given by the user is created, never truncated: a wrong path must not destroy an existing file
+        StandardOpenOption create = StandardOpenOption.CREATE_NEW;
+        if(file == null){
+            file = File.createTempFile("explorer-spill", ".bin");
+            create = StandardOpenOption.WRITE;
+        }
+        file.deleteOnExit();
+
+        return FileChannel.open(file.toPath(), create, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public long getEvictedBytes() {
+        return evictedBytes.get();
+    }
+
+    public long getReloads() {
+        return reloads.get();
+    }
+
+    public long getReloadedBytes() {
+        return reloadedBytes.get();
+    }
+
+    public long getCompactions() {
+        return compactions.get();
+    }
+
+    public long getResidentBytes() {
+        return residentBytes.get();
+    }
+
+    public synchronized long getSpillSize() {
+        return spillEnd;
+    }
+
+    //Counters of the store, in a form that can be logged
+    public String getMetrics() {
+        return String.format("%d of %d bytes resident, %d evictions (%d bytes), %d reloads (%d bytes), " +
+                        "spill file %d bytes (%d compactions)", getResidentBytes(), BUDGET, getEvictions(),
+                getEvictedBytes(), getReloads(), getReloadedBytes(), getSpillSize(), getCompactions());
+    }
+}
@@ -1,14 +1,22 @@
-import montefiore.ulg.ac.be.graphics.LevelException;
-import montefiore.ulg.ac.be.graphics.NoParentNodeException;
-import montefiore.ulg.ac.be.graphics.NoPreviousInsertedNodeException;
-import montefiore.ulg.ac.be.graphics.NoSelectedNodeException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 
 /**
- * Visitor used to copy files
+ * Visitor used to copy files.
+ *
+ * The copy is built apart from the tree, each folder receiving all its children at once, then inserted in the tree in
+ * one go: copying a folder does not copy the list of children of the folder once per child.
  */
 public class CopyNodeVisitor extends NodeVisitor {
 
     private Node rootOfCopy;
+
+    //Copy of the last visited node, null if it is not copied
+    private Node copy;
+
+    //Children of the folders copied, read when the first folder is visited
+    private Map<Folder, List<Node>> children;
     private GuiHandler gui = GuiHandler.getInstance();
     private Logger logger = Logger.getInstance();
 
@@ -18,82 +26,51 @@ public class CopyNodeVisitor extends NodeVisitor {
 
     @Override
     void visitFolder(Folder node) {
-        try {
-
-            //This is the root node of the copy - simply copy the file to its parent
-            if(this.rootOfCopy == node) {
-                Folder copy = new Folder(getCopyName(node));
-                gui.addNodeToParentNode(copy);
-            }
-
-            //This is not the root node of the copy - this is a recursive call
-            else{
-                Folder copy = new Folder(node.getName());
-                int currentLevel = node.getLevel() - rootOfCopy.getLevel();
-                gui.addNodeToLastInsertedNode(copy, currentLevel);
-            }
-
-            for(Node n : node.getChildren()){
-                n.accept(this);
-            }
-
-        } catch (NoSelectedNodeException | NoParentNodeException | NoPreviousInsertedNodeException | LevelException e) {
-            e.printStackTrace();
-            logger.log(e.toString());
+        if(children == null)
+            children = node.snapshotChildren();
+
+        ArrayList<Node> copies = new ArrayList<>();
+        for(Node n : children.get(node)){
+            n.accept(this);
+            if(copy != null)
+                copies.add(copy);
         }
+
+        Folder folder = new Folder(getName(node));
+        folder.addChildren(copies);
+        finish(node, folder);
     }
 
     @Override
     void visitFile(FileNode node) {
-        try {
-
-            //This is the root node of the copy - simply copy the file to its parent
-            if(this.rootOfCopy == node) {
-                FileNode copy = new FileNode(getCopyName(node), node.getContent());
-                gui.addNodeToParentNode(copy);
-            }
-
-            //This is not the root node of the copy - this is a recursive call
-            else{
-                FileNode copy = new FileNode(node.getName(), node.getContent());
-                int currentLevel = node.getLevel() - rootOfCopy.getLevel();
-                gui.addNodeToLastInsertedNode(copy, currentLevel);
-            }
-
-        } catch (NoSelectedNodeException | NoParentNodeException | NoPreviousInsertedNodeException | LevelException e) {
-            e.printStackTrace();
-            logger.log(e.toString());
-        }
+        finish(node, node.copy(getName(node)));
     }
 
     @Override
     void visitArchive(Archive node) {
-        try {
-
-            //This is the root node of the copy - simply copy the file to its parent
-            if(this.rootOfCopy == node) {
-                Archive copy = new Archive(getCopyName(node), node.getType(), node.getCompressionLevel());
-                copy.setContent(copy.getCompressor().copyContent(node.getContent()));
-                gui.addNodeToParentNode(copy);
-            }
-
-            //This is not the root node of the copy - this is a recursive call
-            else{
-                Archive copy = new Archive(node.getName(), node.getType(), node.getCompressionLevel());
-                copy.setContent(copy.getCompressor().copyContent(node.getContent()));
-                int currentLevel = node.getLevel() - rootOfCopy.getLevel();
-                gui.addNodeToLastInsertedNode(copy, currentLevel);
-            }
-
-        } catch (NoSelectedNodeException | NoParentNodeException | NoPreviousInsertedNodeException | LevelException e) {
-            e.printStackTrace();
-            logger.log(e.toString());
-        }
+        Archive archive = new Archive(getName(node), node.getType(), node.getCompressionLevel());
+        archive.setContent(archive.getCompressor().copyContent(node.getContent()));
+        finish(node, archive);
     }
 
     @Override
     void visitAlias(Alias node) {
         //Cannot copy aliases - do nothing
+        copy = null;
+    }
+
+    //Keep the copy of a visited node for its parent, or insert it in the tree if it is the root of the copy
+    private void finish(Node node, Node copy){
+        this.copy = copy;
+        if(node != rootOfCopy)
+            return;
+
+        gui.addSubtreeToParentNode(copy);
+    }
+
+    //The root of the copy is renamed, the nodes under it keep their names
+    private String getName(Node node){
+        return node == rootOfCopy ? getCopyName(node) : node.getName();
     }
 
     //Get the name of the copy
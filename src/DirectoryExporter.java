@@ -0,0 +1,205 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * Write nodes of the tree to the disk: folders become directories, files and aliases become files and archives become
+ * real archive files.
+ *
+ * Directories are created while walking the tree, the files are written in parallel by a pool of workers. Files still
+ * on the disk are copied with FileChannel.transferTo, the others are encoded chunk by chunk in a direct buffer instead
+ * of being converted to one big byte array.
+ *
+ * The names of the nodes are typed by the user: a name that is not a plain file name (a separator, "." or "..") is
+ * refused, so that the export never writes outside of its directory. Two nodes of the same folder with the same name are
+ * refused too, they would be written to the same file.
+ *
+ * Each file is written to a temporary file next to its target, then moved over the target: the content of a file that
+ * was never loaded may be read from the target itself, when a directory is exported back where it was imported from.
+ */
+class DirectoryExporter {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private ExecutorService workers;
+    private ArrayList<Future<?>> writes = new ArrayList<>();
+
+    //Children of the folders exported, read when the export started
+    private Map<Folder, List<Node>> children;
+
+    /**
+     * Export a node, and its subtree if it is a folder
+     *
+     * @param node the node to export
+     * @param directory the directory of the disk receiving the node
+     * @throws IOException if a file cannot be written
+     * @throws InterruptedException if the thread is interrupted while waiting for the workers
+     */
+    public void export(Node node, Path directory) throws IOException, InterruptedException {
+        export(Collections.singletonList(node), directory);
+    }
+
+    /**
+     * Export several nodes in the same directory
+     *
+     * @param nodes the nodes to export
+     * @param directory the directory of the disk receiving the nodes
+     * @throws IOException if a file cannot be written
+     * @throws InterruptedException if the thread is interrupted while waiting for the workers
+     */
+    public void export(List<Node> nodes, Path directory) throws IOException, InterruptedException {
+        workers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        children = Folder.snapshotChildren(nodes);
+
+        try {
+            Files.createDirectories(directory);
+            checkNames(nodes, directory);
+            for(Node node : nodes)
+                exportRec(node, directory);
+
+            for(Future<?> write : writes){
+                try {
+                    write.get();
+                } catch (ExecutionException e) {
+                    if(e.getCause() instanceof IOException)
+                        throw (IOException) e.getCause();
+                    throw new IOException(e.getCause());
+                }
+            }
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    //Refuse the names that would write outside of the directory, or twice to the same file
+    private static void checkNames(List<Node> nodes, Path directory) throws IOException {
+        HashSet<String> names = new HashSet<>();
+        for(Node node : nodes){
+            if(!Node.isSafeName(node.getName()))
+                throw new IOException("Cannot export into " + directory + ": invalid file name " + node.getName());
+            if(!names.add(node.getName()))
+                throw new IOException("Cannot export into " + directory + ": several nodes are named " + node.getName());
+        }
+    }
+
+    //Recursive call to export a node, whose name was checked
+    private void exportRec(Node node, Path directory) throws IOException {
+        Path target = directory.resolve(node.getName());
+
+        if(node instanceof Folder){
+            List<Node> folderChildren = children.get(node);
+            checkNames(folderChildren, target);
+            Files.createDirectories(target);
+            for(Node child : folderChildren)
+                exportRec(child, target);
+        }
+        else if(node instanceof FileNode)
+            writes.add(workers.submit(() -> writeFile((FileNode) node, target)));
+        else if(node instanceof Alias)
+            writes.add(workers.submit(() -> writeFile(((Alias) node).getFileNode(), target)));
+        else if(node instanceof Archive)
+            writes.add(workers.submit(() -> writeArchive((Archive) node, target)));
+    }
+
+    /**
+     * Something writing a file
+     */
+    private interface ContentWriter {
+        void write(FileChannel out) throws IOException;
+    }
+
+    //Write a temporary file in the directory of the target, then move it over the target. The target is never
+    //truncated before the content is complete, so it can be the source of the content
+    private static void writeAtomically(Path target, ContentWriter writer) throws IOException {
+        Path temporary = Files.createTempFile(target.getParent(), "." + target.getFileName(), ".tmp");
+        try {
+            try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                writer.write(out);
+            }
+            Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    private Void writeFile(FileNode file, Path target) throws IOException {
+        writeAtomically(target, out -> {
+            //The content was never loaded, copy it from disk to disk without going through the heap
+            Path source = file.getSource();
+            if(source != null){
+                try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+                    long position = 0;
+                    long size = in.size();
+                    while(position < size)
+                        position += in.transferTo(position, size - position, out);
+                }
+            }
+            //Decompressed a buffer at a time
+            else if(file instanceof ArchiveEntry)
+                file.writeTo(Channels.newOutputStream(out));
+            else if(file.isChunked())
+                writeText(file.getRope().chunks(), out);
+            else
+                writeText(Collections.singletonList(file.getContent()).iterator(), out);
+        });
+
+        return null;
+    }
+
+    private Void writeArchive(Archive archive, Path target) throws IOException {
+        writeAtomically(target, out -> {
+            OutputStream stream = Channels.newOutputStream(out);
+            archive.getCompressor().writeArchive(archive.getContent(), stream);
+            stream.flush();
+        });
+
+        return null;
+    }
+
+    //Encode a text given in one or several chunks in UTF-8 and write it, one buffer at a time
+    private static void writeText(Iterator<String> chunks, FileChannel out) throws IOException {
+        CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+        boolean done = !chunks.hasNext();
+        while(!done){
+            CharBuffer chars = CharBuffer.wrap(chunks.next());
+            boolean isLast = !chunks.hasNext();
+
+            boolean chunkDone = false;
+            while(!chunkDone){
+                CoderResult result = encoder.encode(chars, buffer, isLast);
+                if(result.isUnderflow())
+                    chunkDone = !isLast || encoder.flush(buffer).isUnderflow();
+                else if(result.isError())
+                    result.throwException();
+
+                buffer.flip();
+                while(buffer.hasRemaining())
+                    out.write(buffer);
+                buffer.clear();
+            }
+
+            done = isLast;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.*;
+
+/**
+ * Build the subtree corresponding to a directory of the disk.
+ *
+ * The directory is walked with Files.walkFileTree, which only reads metadata, while the contents of the small files are
+ * read in parallel by a pool of workers. Files bigger than LAZY_THRESHOLD are not read at all: their content is loaded
+ * the first time it is needed.
+ */
+class DirectoryImporter {
+    private static final long LAZY_THRESHOLD = 1024 * 1024;
+
+    private Logger logger = Logger.getInstance();
+
+    /**
+     * A folder and its future children, in the order of the walk
+     */
+    private static class PendingFolder {
+        private Folder folder;
+        private ArrayList<Future<Node>> children = new ArrayList<>();
+
+        PendingFolder(Folder folder) {
+            this.folder = folder;
+        }
+    }
+
+    /**
+     * Import a directory
+     *
+     * @param directory the directory to import
+     * @return a folder holding the content of the directory, not attached to any tree
+     * @throws IOException if the directory cannot be walked
+     * @throws InterruptedException if the thread is interrupted while waiting for the workers
+     */
+    public Folder importDirectory(Path directory) throws IOException, InterruptedException {
+        if(!Files.isDirectory(directory))
+            throw new NotDirectoryException(directory.toString());
+
+        //The walk does not follow links, not even the one given: the link is resolved, but the folder keeps its name
+        String rootName = getName(directory);
+        Path start = directory.toRealPath();
+
+        ExecutorService workers = Executors.newFixedThreadPool(2 * Runtime.getRuntime().availableProcessors());
+
+        //Folders whose children are being read, and all the folders in post-order to assemble them bottom up
+        ArrayDeque<PendingFolder> stack = new ArrayDeque<>();
+        ArrayList<PendingFolder> finished = new ArrayList<>();
+
+        try {
+            Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    PendingFolder pending = new PendingFolder(new Folder(stack.isEmpty() ? rootName : getName(dir)));
+
+                    if(!stack.isEmpty())
+                        stack.peek().children.add(CompletableFuture.completedFuture(pending.folder));
+                    stack.push(pending);
+
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    //The start is no longer a directory, it was replaced since it was resolved
+                    if(stack.isEmpty())
+                        throw new NotDirectoryException(file.toString());
+
+                    String name = getName(file);
+                    long size = attrs.size();
+
+                    if(size >= LAZY_THRESHOLD)
+                        stack.peek().children.add(CompletableFuture.completedFuture(new FileNode(name, file, size)));
+                    else
+                        stack.peek().children.add(workers.submit(() -> new FileNode(name,
+                                new String(Files.readAllBytes(file), StandardCharsets.UTF_8))));
+
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    //Skip what cannot be read instead of stopping the whole import
+                    logger.log(Logger.Level.WARNING, "DirectoryImporter.visitFileFailed", exc);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException exc) {
+                    if(exc != null)
+                        logger.log(Logger.Level.WARNING, "DirectoryImporter.postVisitDirectory", exc);
+
+                    finished.add(stack.pop());
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+
+            //Children are assembled before their parent, so that the statistics of a folder are complete when it
+            //is added to its parent
+            for(PendingFolder pending : finished){
+                ArrayList<Node> children = new ArrayList<>();
+                for(Future<Node> future : pending.children){
+                    try {
+                        children.add(future.get());
+                    } catch (ExecutionException e) {
+                        logger.log(Logger.Level.WARNING, "DirectoryImporter.importDirectory", e.getCause());
+                    }
+                }
+                pending.folder.addChildren(children);
+            }
+        } finally {
+            workers.shutdownNow();
+        }
+
+        if(finished.isEmpty())
+            throw new AccessDeniedException(directory.toString());
+
+        return finished.get(finished.size() - 1).folder;
+    }
+
+    //Name of a file or directory, the root of a file system has no file name
+    private static String getName(Path path){
+        Path name = path.getFileName();
+        return name == null ? path.toString() : name.toString();
+    }
+}
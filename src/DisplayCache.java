@@ -0,0 +1,74 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LRU cache of the texts displayed for the nodes.
+ *
+ * A text is only valid for the version of the node it was built from: any modification of the node or its subtree
+ * increments the version and makes the text outdated. The cache is bounded by the total number of characters it holds.
+ */
+class DisplayCache {
+    private static final long MAX_CHARACTERS = 4 * 1024 * 1024;
+
+    /**
+     * A displayed text and the version of the node it was built from
+     */
+    private static class Entry {
+        private long version;
+        private String text;
+
+        Entry(long version, String text) {
+            this.version = version;
+            this.text = text;
+        }
+    }
+
+    //Access order: the first entry is the least recently used
+    private LinkedHashMap<Node, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long characters = 0;
+
+    /**
+     * Get the text displayed for a node
+     *
+     * @param node the node to display
+     * @return the text, or null if it is not in the cache or the node was modified since
+     */
+    public synchronized String get(Node node){
+        Entry entry = entries.get(node);
+        if(entry == null)
+            return null;
+
+        if(entry.version != node.getVersion()){
+            remove(node);
+            return null;
+        }
+
+        return entry.text;
+    }
+
+    //Remember the text displayed for a node, for its current version
+    public synchronized void put(Node node, String text){
+        remove(node);
+
+        //Texts bigger than the whole cache are not kept
+        if(text.length() > MAX_CHARACTERS)
+            return;
+
+        entries.put(node, new Entry(node.getVersion(), text));
+        characters += text.length();
+
+        //Evict the least recently used texts
+        Iterator<Map.Entry<Node, Entry>> iterator = entries.entrySet().iterator();
+        while(characters > MAX_CHARACTERS && iterator.hasNext()){
+            characters -= iterator.next().getValue().text.length();
+            iterator.remove();
+        }
+    }
+
+    private void remove(Node node){
+        Entry entry = entries.remove(node);
+        if(entry != null)
+            characters -= entry.text.length();
+    }
+}
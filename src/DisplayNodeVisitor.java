@@ -1,31 +1,48 @@
-import montefiore.ulg.ac.be.graphics.TextAreaManager;
+import java.util.List;
+import java.util.Map;
 
 /**
- * Visitor used to display files in the TextArea
+ * Visitor used to build the text displayed in the TextArea
  */
 public class DisplayNodeVisitor extends NodeVisitor{
     private static final String RETURN = "\n";
 
     private Node displayRootNode;
-    private TextAreaManager textAreaManager;
+    private StringBuilder text = new StringBuilder();
 
-    public DisplayNodeVisitor(Node displayRootNode, TextAreaManager textAreaManager) {
+    //Depth of the visited node relative to the root of the display
+    private int depth = 0;
+
+    //Children of the folders displayed, read when the first folder is visited
+    private Map<Folder, List<Node>> children;
+
+    public DisplayNodeVisitor(Node displayRootNode) {
         this.displayRootNode = displayRootNode;
-        this.textAreaManager = textAreaManager;
+    }
+
+    //The text to display, once the node was visited
+    public String getText() {
+        return text.toString();
     }
 
     @Override
     public void visitFolder(Folder node) {
         //This is NOT the root node of the display - display its name in addition to its children
         if(this.displayRootNode != node) {
-            String toDisplay = getPrefix(node.getLevel(), this.displayRootNode.getLevel());
-            toDisplay += node.getName() + RETURN;
+            String toDisplay = getPrefix(depth, 0);
+            toDisplay += node.getName();
+            toDisplay += String.format(" (%d files, %d bytes)", node.getFileCount(), node.getSize()) + RETURN;
 
             this.display(toDisplay);
         }
 
-        for(Node n : node.getChildren())
+        if(children == null)
+            children = node.snapshotChildren();
+
+        depth++;
+        for(Node n : children.get(node))
             n.accept(this);
+        depth--;
 
     }
 
@@ -37,8 +54,9 @@ public class DisplayNodeVisitor extends NodeVisitor{
 
         //This is NOT the root node of the display - we want to display its name
         else {
-            String toDisplay = getPrefix(node.getLevel(), this.displayRootNode.getLevel());
-            toDisplay +=  node.toString() + RETURN;
+            String toDisplay = getPrefix(depth, 0);
+            toDisplay +=  node.toString();
+            toDisplay += String.format(" (%d bytes)", node.getSize()) + RETURN;
 
             this.display(toDisplay);
         }
@@ -55,7 +73,7 @@ public class DisplayNodeVisitor extends NodeVisitor{
 
         //This is NOT the root node of the display - we want to display its name
         else {
-            String toDisplay = getPrefix(node.getLevel(), this.displayRootNode.getLevel());
+            String toDisplay = getPrefix(depth, 0);
             toDisplay +=  node.toString() + RETURN;
 
             this.display(toDisplay);
@@ -74,8 +92,10 @@ public class DisplayNodeVisitor extends NodeVisitor{
 
         //This is NOT the root node of the display - we want to display its name
         else {
-            String toDisplay = getPrefix(node.getLevel(), this.displayRootNode.getLevel());
-            toDisplay +=  node.toString() + RETURN;
+            String toDisplay = getPrefix(depth, 0);
+            toDisplay +=  node.toString();
+            toDisplay += String.format(" (%d bytes, %d bytes uncompressed)",
+                    node.getCompressedSize(), node.getUncompressedSize()) + RETURN;
 
             this.display(toDisplay);
         }
@@ -93,11 +113,11 @@ public class DisplayNodeVisitor extends NodeVisitor{
     }
 
     /**
-     * Append the string to the TextAreaManager
+     * Append the string to the text to display
      * @param s the string to display
      */
     private void display(String s){
-        this.textAreaManager.appendText(s);
+        this.text.append(s);
     }
 
     /**
@@ -0,0 +1,202 @@
+import montefiore.ulg.ac.be.graphics.*;
+
+import javax.swing.JFileChooser;
+import javax.swing.JList;
+import javax.swing.JMenuItem;
+import javax.swing.JOptionPane;
+import javax.swing.JPopupMenu;
+import javax.swing.JScrollPane;
+import javax.swing.JTextArea;
+import javax.swing.JTree;
+import javax.swing.tree.DefaultMutableTreeNode;
+import java.lang.reflect.Field;
+import java.util.function.Consumer;
+
+/**
+ * The operations of the view used by GuiHandler, so that it can run against another view than ExplorerSwingView (e.g.
+ * the stub view of the LoadHarness)
+ */
+interface ExplorerView {
+
+    void setRootNode(Object rootNode) throws RootAlreadySetException;
+
+    void refreshTree();
+
+    //The JTree displaying the tree, null if the view does not display anything. The nodes are added to it by
+    //ViewUpdater, not by the view
+    JTree getTree();
+
+    boolean isRootNodeSelected();
+
+    void showPopupError(String message);
+
+    String folderMenuDialog();
+
+    String[] fileMenuDialog();
+
+    //Name of the archive
+    String displayArchiveWindow1();
+
+    //Extension of the archive
+    String displayArchiveWindow2();
+
+    //Compression level, -1 if cancelled
+    int displayArchiveWindow3();
+
+    void clearText();
+
+    void appendText(String text);
+
+    //Add an action to the menu of the nodes, for the operations ExplorerEventsHandler has no event for. The action
+    //gets the selected node
+    void addMenuItem(String label, Consumer<Object> action);
+
+    //Path of a directory chosen by the user, null if cancelled
+    String directoryDialog(String title);
+
+    //Text typed by the user, null if cancelled
+    String inputDialog(String message, String initialValue);
+
+    //Text edited by the user, null if cancelled
+    String editDialog(String title, String text);
+
+    //Index of the option chosen by the user, -1 if cancelled
+    int chooseDialog(String title, String[] options);
+}
+
+/**
+ * The view of the graphics library
+ */
+class SwingExplorerView implements ExplorerView {
+    private ExplorerSwingView esv;
+
+    //ExplorerSwingView gives access neither to its JTree nor to its menu, they are read once from its fields. Null if
+    //they cannot be read
+    private JTree tree;
+    private JPopupMenu popupMenu;
+
+    public SwingExplorerView(ExplorerEventsHandler handler) throws NullHandlerException {
+        this.esv = new ExplorerSwingView(handler);
+
+        try {
+            this.tree = (JTree) getField("tree");
+            this.popupMenu = (JPopupMenu) getField("popupMenu");
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            Logger.getInstance().log(Logger.Level.ERROR, "SwingExplorerView", e);
+        }
+    }
+
+    @Override
+    public void setRootNode(Object rootNode) throws RootAlreadySetException {
+        esv.setRootNode(rootNode);
+    }
+
+    @Override
+    public void refreshTree() {
+        esv.refreshTree();
+    }
+
+    @Override
+    public JTree getTree() {
+        return tree;
+    }
+
+    @Override
+    public boolean isRootNodeSelected() {
+        return esv.isRootNodeSelected();
+    }
+
+    @Override
+    public void showPopupError(String message) {
+        esv.showPopupError(message);
+    }
+
+    @Override
+    public String folderMenuDialog() {
+        return esv.folderMenuDialog();
+    }
+
+    @Override
+    public String[] fileMenuDialog() {
+        return esv.fileMenuDialog();
+    }
+
+    @Override
+    public String displayArchiveWindow1() {
+        return esv.displayArchiveWindow1();
+    }
+
+    @Override
+    public String displayArchiveWindow2() {
+        return esv.displayArchiveWindow2();
+    }
+
+    @Override
+    public int displayArchiveWindow3() {
+        return esv.displayArchiveWindow3();
+    }
+
+    @Override
+    public void clearText() {
+        esv.getTextAreaManager().clearAllText();
+    }
+
+    @Override
+    public void appendText(String text) {
+        esv.getTextAreaManager().appendText(text);
+    }
+
+    @Override
+    public void addMenuItem(String label, Consumer<Object> action) {
+        if(tree == null || popupMenu == null)
+            return;
+
+        JMenuItem item = new JMenuItem(label);
+        item.addActionListener(e -> {
+            //The row clicked is selected before the menu is shown
+            DefaultMutableTreeNode selected = (DefaultMutableTreeNode) tree.getLastSelectedPathComponent();
+            if(selected != null)
+                action.accept(selected.getUserObject());
+        });
+        popupMenu.add(item);
+    }
+
+    @Override
+    public String directoryDialog(String title) {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setDialogTitle(title);
+        chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+        if(chooser.showDialog(null, "Select") != JFileChooser.APPROVE_OPTION)
+            return null;
+        return chooser.getSelectedFile().getPath();
+    }
+
+    @Override
+    public String inputDialog(String message, String initialValue) {
+        return JOptionPane.showInputDialog(null, message, initialValue);
+    }
+
+    @Override
+    public String editDialog(String title, String text) {
+        JTextArea area = new JTextArea(text, 25, 80);
+        int answer = JOptionPane.showConfirmDialog(null, new JScrollPane(area), title, JOptionPane.OK_CANCEL_OPTION,
+                JOptionPane.PLAIN_MESSAGE);
+        return answer == JOptionPane.OK_OPTION ? area.getText() : null;
+    }
+
+    //A list instead of a combo box: the options may be many, and some of them equal
+    @Override
+    public int chooseDialog(String title, String[] options) {
+        JList<String> list = new JList<>(options);
+        list.setSelectedIndex(0);
+        int answer = JOptionPane.showConfirmDialog(null, new JScrollPane(list), title, JOptionPane.OK_CANCEL_OPTION,
+                JOptionPane.PLAIN_MESSAGE);
+        return answer == JOptionPane.OK_OPTION ? list.getSelectedIndex() : -1;
+    }
+
+    private Object getField(String name) throws ReflectiveOperationException {
+        Field field = ExplorerSwingView.class.getDeclaredField(name);
+        field.setAccessible(true);
+        return field.get(esv);
+    }
+}
@@ -1,14 +1,86 @@
-import montefiore.ulg.ac.be.graphics.ExplorerSwingView;
+import javax.swing.JTree;
+import javax.swing.tree.DefaultMutableTreeNode;
+import javax.swing.tree.DefaultTreeModel;
+import java.util.HashMap;
 
+/**
+ * Gives access to the JTree of ExplorerSwingView and to its nodes, for the operations that ExplorerSwingView does not
+ * provide. The changes themselves are sent to the JTree by ViewUpdater
+ */
 public class GUIAdapter {
 
-    ExplorerSwingView esv;
+    ExplorerView esv;
+    private Node rootNode;
 
-    public GUIAdapter(ExplorerSwingView esv) {
+    //Node of the view holding each displayed node of the tree. Only used in the event dispatch thread
+    private HashMap<Node, DefaultMutableTreeNode> treeNodes = new HashMap<>();
+
+    public GUIAdapter(ExplorerView esv, Node rootNode) {
         this.esv = esv;
+        this.rootNode = rootNode;
     }
 
     public void insertNode(Folder folder, Node toInsert, Node selectedNode){
-        
+
+    }
+
+    //Build the nodes of the view for a subtree
+    DefaultMutableTreeNode buildTreeNode(Node node){
+        DefaultMutableTreeNode treeNode = new DefaultMutableTreeNode(node);
+        treeNodes.put(node, treeNode);
+
+        //A node already displayed elsewhere was moved into the subtree, the move brings its node of the view
+        if(node instanceof Folder)
+            for(Node child : ((Folder) node).getChildren())
+                if(!treeNodes.containsKey(child))
+                    treeNode.add(buildTreeNode(child));
+
+        return treeNode;
+    }
+
+    DefaultTreeModel getModel(){
+        JTree tree = getTree();
+        if(tree == null)
+            return null;
+
+        return (DefaultTreeModel) tree.getModel();
+    }
+
+    /**
+     * Get the node of the view holding a node of the tree
+     *
+     * @param node a node of the internal representation of the tree
+     * @return the node of the view, or null if the node is not displayed
+     */
+    DefaultMutableTreeNode getTreeNode(Node node){
+        DefaultMutableTreeNode treeNode = treeNodes.get(node);
+
+        //The root of the view is built by ExplorerSwingView
+        if(treeNode == null && node == rootNode){
+            DefaultTreeModel model = getModel();
+            if(model != null){
+                treeNode = (DefaultMutableTreeNode) model.getRoot();
+                treeNodes.put(rootNode, treeNode);
+            }
+        }
+
+        return treeNode;
+    }
+
+    //Build again all the nodes of the view from the tree, the JTree must then be reloaded
+    void rebuild(){
+        treeNodes.clear();
+
+        DefaultMutableTreeNode root = getTreeNode(rootNode);
+        if(root == null)
+            return;
+
+        root.removeAllChildren();
+        for(Node child : ((Folder) rootNode).getChildren())
+            root.add(buildTreeNode(child));
+    }
+
+    JTree getTree(){
+        return esv.getTree();
     }
 }
@@ -1,40 +1,292 @@
 import montefiore.ulg.ac.be.graphics.*;
 
-import java.util.HashMap;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
 
 public class GuiHandler implements ExplorerEventsHandler {
 
-	private ExplorerSwingView esv;
+	private ExplorerView esv;
+	private GUIAdapter guiAdapter;
+
+	//Sends the changes of the tree to the view, instead of refreshing the whole view after each operation
+	private ViewUpdater viewUpdater;
+
+	private Folder rootNode = new Folder("root");
+
+	//Journal of the operations on the tree, null if the tree is not persisted
+	private Journal journal;
+
+	//Texts already displayed, to display them again without visiting the nodes
+	private DisplayCache displayCache = new DisplayCache();
 
 	//Last known selected node
-	private Node selectedNode;
+	private volatile Node selectedNode;
 
-	//Used to remember last inserted nodes for recursive calls
-	private HashMap<Integer, Node> lastInsertedNodes = new HashMap<>();
+	//Node cut with the menu, moved by the next paste
+	private volatile Node cutNode;
 
-	private static Logger logger;
+	private static volatile Logger logger;
 
 	private static GuiHandler INSTANCE;
-	static GuiHandler getInstance()  {
+	static synchronized GuiHandler getInstance()  {
 		if(INSTANCE == null)
 			INSTANCE = new GuiHandler();
 		logger = Logger.getInstance();
 
 		return INSTANCE;
 	}
+
+	/**
+	 * Instantiate the GuiHandler with another view than the swing one
+	 *
+	 * @param view the view
+	 * @return the instance
+	 * @throws InstantiationException if the GuiHandler was already instantiated
+	 */
+	static synchronized GuiHandler instantiate(ExplorerView view) throws InstantiationException {
+		if(INSTANCE != null)
+			throw new InstantiationException("GuiHandler is already instantiated");
+		logger = Logger.getInstance();
+		INSTANCE = new GuiHandler(view);
+
+		return INSTANCE;
+	}
 	
     private GuiHandler() {
         try {
-			this.esv = new ExplorerSwingView(this);
-
-			// First step to do before anything !!!
-            this.esv.setRootNode(new Folder("root")); // set the root node with a silly "A" object
-        } catch (RootAlreadySetException | NullHandlerException e) {
+			this.setView(new SwingExplorerView(this));
+        } catch (NullHandlerException e) {
         	//We cannot have a NullHandlerException in practice, because "this" can never be null
             e.printStackTrace();
         }
 	}
+
+	private GuiHandler(ExplorerView view) {
+		this.setView(view);
+	}
+
+	private void setView(ExplorerView view) {
+		try {
+			this.esv = view;
+
+			// First step to do before anything !!!
+			this.esv.setRootNode(rootNode); // set the root node with a silly "A" object
+			this.guiAdapter = new GUIAdapter(esv, rootNode);
+			this.viewUpdater = new ViewUpdater(esv, guiAdapter);
+
+			//Operations without an event in ExplorerEventsHandler
+			this.esv.addMenuItem("Cut", this::cutEvent);
+			this.esv.addMenuItem("Paste here", this::pasteEvent);
+			this.esv.addMenuItem("Rename...", this::renameEvent);
+			this.esv.addMenuItem("Edit...", this::editEvent);
+			this.esv.addMenuItem("Open an entry...", this::openEntryEvent);
+			this.esv.addMenuItem("Extract here", this::extractEvent);
+			this.esv.addMenuItem("Export to a directory", this::exportEvent);
+		} catch (RootAlreadySetException e) {
+			e.printStackTrace();
+		}
+	}
+
+	//Root of the internal representation of the tree
+	Folder getRootNode() {
+		return rootNode;
+	}
 	
+	/**
+	 * Restore the tree saved in a journal, then save every new operation in it
+	 *
+	 * @param directory the directory of the journal
+	 */
+	public void openJournal(File directory){
+		try {
+			this.journal = Journal.open(directory, rootNode);
+
+			//Display the restored tree
+			for(Node n : rootNode.getChildren())
+				viewUpdater.inserted(n);
+		} catch (IOException e) {
+			logger.log(Logger.Level.ERROR, "GuiHandler.openJournal", e);
+		}
+	}
+
+	/**
+	 * Import a directory of the disk, with all its content, in a folder of the tree
+	 *
+	 * @param directory the directory to import
+	 * @param destination the folder receiving the imported directory
+	 */
+	public void importDirectory(Path directory, Folder destination){
+		try {
+			//Build the whole subtree before touching the tree, then attach it in one go
+			Folder imported = new DirectoryImporter().importDirectory(directory);
+
+			insertNode(destination, imported);
+		} catch (IOException | InterruptedException e) {
+			logger.log(Logger.Level.ERROR, "GuiHandler.importDirectory", e);
+		}
+	}
+
+	//Import a directory of the disk in the root of the tree
+	public void importDirectory(Path directory){
+		this.importDirectory(directory, rootNode);
+	}
+
+	/**
+	 * Write a node of the tree, with all its content, in a directory of the disk
+	 *
+	 * @param node the node to export
+	 * @param directory the directory receiving the node
+	 */
+	public void exportNode(Node node, Path directory){
+		try {
+			new DirectoryExporter().export(node, directory);
+		} catch (IOException | InterruptedException e) {
+			logger.log(Logger.Level.ERROR, "GuiHandler.exportNode", e);
+			esv.showPopupError("Export failed: " + e.getMessage());
+		}
+	}
+
+	//Write the whole tree in a directory of the disk, the children of the root go directly in the directory
+	public void exportTree(Path directory){
+		try {
+			new DirectoryExporter().export(rootNode.getChildren(), directory);
+		} catch (IOException | InterruptedException e) {
+			logger.log(Logger.Level.ERROR, "GuiHandler.exportTree", e);
+		}
+	}
+
+	//Export the selected node in a directory chosen by the user
+	public void exportEvent(Object selectedNode) {
+		logger.log("exportEvent");
+
+		String directory = esv.directoryDialog("Export " + selectedNode);
+		if(directory == null)
+			return;
+
+		this.exportNode((Node) selectedNode, Paths.get(directory));
+	}
+
+	//Remember the selected node, it is moved by the next paste
+	public void cutEvent(Object selectedNode) {
+		logger.log("cutEvent");
+
+		if(selectedNode == rootNode){
+			esv.showPopupError("Cannot move the root directory");
+			return;
+		}
+		this.cutNode = (Node) selectedNode;
+	}
+
+	//Move the node cut before into the selected folder
+	public void pasteEvent(Object selectedNode) {
+		logger.log("pasteEvent");
+
+		Node node = this.cutNode;
+		if(node == null){
+			esv.showPopupError("Nothing to paste, cut a node first");
+			return;
+		}
+		else if(!(selectedNode instanceof Folder)){
+			esv.showPopupError("Can only paste in a folder");
+			return;
+		}
+
+		this.cutNode = null;
+		this.moveNode(node, (Folder) selectedNode);
+	}
+
+	//Rename the selected node with a name typed by the user
+	public void renameEvent(Object selectedNode) {
+		logger.log("renameEvent");
+
+		Node node = (Node) selectedNode;
+		if(node == rootNode){
+			esv.showPopupError("Cannot rename the root directory");
+			return;
+		}
+
+		String name = esv.inputDialog("New name", node.getName());
+		if(name == null)
+			return;
+		if(!Node.isSafeName(name)){
+			esv.showPopupError("Invalid name: it must not be empty, contain a separator or be . or ..");
+			return;
+		}
+
+		this.renameNode(node, name);
+	}
+
+	//Edit the content of the selected file (or of the file of the selected alias) in a dialog
+	public void editEvent(Object selectedNode) {
+		logger.log("editEvent");
+
+		Node node = selectedNode instanceof Alias ? ((Alias) selectedNode).getFileNode() : (Node) selectedNode;
+		if(!(node instanceof FileNode) || node instanceof ArchiveEntry){
+			esv.showPopupError("Can only edit a file");
+			return;
+		}
+
+		FileNode file = (FileNode) node;
+		String before = file.getContent();
+		String after = esv.editDialog("Edit " + file.getName(), before);
+		if(after == null || after.equals(before))
+			return;
+
+		//Only the part between the common prefix and the common suffix is replaced, and journaled
+		int max = Math.min(before.length(), after.length());
+		int prefix = 0;
+		while(prefix < max && before.charAt(prefix) == after.charAt(prefix))
+			prefix++;
+		int suffix = 0;
+		while(suffix < max - prefix && before.charAt(before.length() - 1 - suffix) == after.charAt(after.length() - 1 - suffix))
+			suffix++;
+
+		//Never split a surrogate pair
+		if(prefix > 0 && Character.isHighSurrogate(before.charAt(prefix - 1)))
+			prefix--;
+		if(suffix > 0 && Character.isLowSurrogate(before.charAt(before.length() - suffix)))
+			suffix--;
+
+		this.editFile(file, prefix, before.length() - suffix, after.substring(prefix, after.length() - suffix));
+	}
+
+	//Display a single file of the selected archive, chosen by the user, without extracting the archive
+	public void openEntryEvent(Object selectedNode) {
+		logger.log("openEntryEvent");
+
+		if(!(selectedNode instanceof Archive)){
+			esv.showPopupError("Can only open an entry of an archive");
+			return;
+		}
+
+		Archive archive = (Archive) selectedNode;
+		List<String> paths = archive.getEntryPaths();
+		if(paths.isEmpty()){
+			esv.showPopupError("The archive is empty");
+			return;
+		}
+
+		int index = esv.chooseDialog("Entry of " + archive.getName(), paths.toArray(new String[0]));
+		if(index == -1)
+			return;
+
+		String content;
+		try {
+			content = archive.openEntry(index);
+		} catch (IllegalStateException e) {
+			//Content of an archive entry that cannot be decompressed
+			logger.log(Logger.Level.ERROR, "GuiHandler.openEntryEvent", e);
+			esv.showPopupError(e.getMessage());
+			return;
+		}
+
+		esv.clearText();
+		esv.appendText(content);
+	}
+
 	@Override
 	public void createAliasEvent(Object selectedNode) {
 		logger.log("createAliasEvent");
@@ -48,13 +300,7 @@ public class GuiHandler implements ExplorerEventsHandler {
 		}
 
 		Alias alias = new Alias(this.selectedNode.getName() + "(alias)", (FileNode) selectedNode);
-		try {
-			this.addNodeToParentNode(alias);
-			esv.refreshTree();
-		} catch (NoSelectedNodeException | NoParentNodeException e) {
-			e.printStackTrace();
-			logger.log(e.toString());
-		}
+		this.addNodeToParentNode(alias);
 
 	}
 
@@ -97,11 +343,36 @@ public class GuiHandler implements ExplorerEventsHandler {
 			Archive archive = archiver.buildArchive(folder, archiveName, compressionLevel);
 
 			this.addNodeToParentNode(archive);
+		} catch (Exception e) {
+			logger.log(Logger.Level.ERROR, "GuiHandler.createArchiveEvent", e);
+		}
+	}
+
+	//Extract the selected archive into a new folder placed in the same folder as the archive
+	public void extractEvent(Object selectedNode) {
+		logger.log("extractEvent");
+
+		this.selectedNode = (Node)selectedNode;
 
-			esv.refreshTree();
+		if(!(selectedNode instanceof Archive)){
+			esv.showPopupError("Can only extract an archive");
+			return;
+		}
+
+		Archive archive = (Archive) selectedNode;
+		try {
+			//A corrupted entry would be extracted with wrong content, or make the extraction fail
+			List<String> corrupted = archive.verify();
+			if(!corrupted.isEmpty()){
+				esv.showPopupError("Corrupted files in archive: " + String.join(", ", corrupted));
+				return;
+			}
+
+			//Decompress everything before touching the tree, then insert the result in one go
+			Folder extracted = archive.extract();
+			this.addSubtreeToParentNode(extracted);
 		} catch (Exception e) {
-			e.printStackTrace();
-			logger.log(e.toString());
+			logger.log(Logger.Level.ERROR, "GuiHandler.extractEvent", e);
 		}
 	}
 
@@ -124,8 +395,6 @@ public class GuiHandler implements ExplorerEventsHandler {
 		//Create visitor and visit the node
 		CopyNodeVisitor visitor = new CopyNodeVisitor(this.selectedNode);
 		this.selectedNode.accept(visitor);
-
-		esv.refreshTree();
 	}
 
 	@Override
@@ -147,14 +416,7 @@ public class GuiHandler implements ExplorerEventsHandler {
 
 		//Add file to the tree
 		FileNode newFile = new FileNode(ss[0], ss[1]);
-		try {
-			this.addNodeToSelectedNode(newFile);
-		} catch (NoSelectedNodeException e) {
-			e.printStackTrace();
-			logger.log(e.toString());
-		}
-
-		esv.refreshTree();
+		this.addNodeToSelectedNode(newFile);
 	}
 
 	@Override
@@ -180,14 +442,7 @@ public class GuiHandler implements ExplorerEventsHandler {
 
 		//Create new folder and add it to the tree
 		Folder newFolder = new Folder(name);
-		try {
-			this.addNodeToSelectedNode(newFolder);
-		} catch (NoSelectedNodeException e) {
-			e.printStackTrace();
-			logger.log(e.toString());
-		}
-
-		esv.refreshTree();
+		this.addNodeToSelectedNode(newFolder);
 	}
 
 	@Override
@@ -197,74 +452,113 @@ public class GuiHandler implements ExplorerEventsHandler {
 		this.selectedNode = (Node)selectedNode;
 
 		//Clear text of AreaManager
-		esv.getTextAreaManager().clearAllText();
+		esv.clearText();
 
-		//Create visitor and visit the node
-		DisplayNodeVisitor visitor = new DisplayNodeVisitor(this.selectedNode, esv.getTextAreaManager());
-		this.selectedNode.accept(visitor);
+		//Files kept in chunks are given to the text area one chunk at a time, without building the whole text
+		Node displayed = this.selectedNode instanceof Alias ? ((Alias) this.selectedNode).getFileNode() : this.selectedNode;
+		if(displayed instanceof FileNode && ((FileNode) displayed).isChunked()){
+			((FileNode) displayed).getRope().forEachChunk(esv::appendText);
+			return;
+		}
+
+		//Visit the node only if it was modified since the last time it was displayed
+		String text = displayCache.get(this.selectedNode);
+		if(text == null){
+			DisplayNodeVisitor visitor = new DisplayNodeVisitor(this.selectedNode);
+			try {
+				this.selectedNode.accept(visitor);
+			} catch (IllegalStateException e) {
+				//Content of an archive entry that cannot be decompressed
+				logger.log(Logger.Level.ERROR, "GuiHandler.doubleClickEvent", e);
+				esv.showPopupError(e.getMessage());
+				return;
+			}
+			text = visitor.getText();
+			displayCache.put(this.selectedNode, text);
+		}
+
+		esv.appendText(text);
 	}
 
 	@Override
 	public void eventExit() {
 		logger.log("eventExit");
-	}
-
-	//Same as ExplorerSwingView.addNodeToParentNode, but also add node in internal representation of the tree
-	public void addNodeToParentNode(Node node) throws NoParentNodeException, NoSelectedNodeException {
+		logger.log(Logger.Level.INFO, "Contents: " + ContentStore.getInstance().getMetrics());
 
-		//Update the swing view first because it will send the needed exceptions
-		esv.addNodeToParentNode(node);
+		if(journal != null)
+			journal.close();
+	}
 
-		//Update internal representation of tree
-		Folder parent = (Folder)this.selectedNode.getParent();
-		parent.addChild(node);
-		node.setParent(parent);
+	//Add a node next to the selected node, in the internal representation of the tree. The view shows it from there
+	public void addNodeToParentNode(Node node) {
+		Node selected = this.selectedNode;
+		if(selected == null){
+			esv.showPopupError("Select a node first");
+			return;
+		}
+		else if(selected.getParent() == null){
+			esv.showPopupError("The root directory has no parent");
+			return;
+		}
 
-		//Update lastInserted HashMap
-		this.lastInsertedNodes.clear();
-		this.lastInsertedNodes.put(0, node);
+		insertNode((Folder) selected.getParent(), node);
 	}
 
-	//Same as ExplorerSwingView.addNodeToSelectedNode, but also add node in internal representation of the tree
-	public void addNodeToSelectedNode(Node node) throws NoSelectedNodeException {
+	//Add a node in the selected folder, in the internal representation of the tree. The view shows it from there
+	public void addNodeToSelectedNode(Node node) {
 		if (!(this.selectedNode instanceof Folder)){
 			esv.showPopupError("Can only add a folder to another folder");
 			return;
 		}
 
-		//Update the swing view first because it will send the needed exceptions
-		esv.addNodeToSelectedNode(node);
+		insertNode((Folder) this.selectedNode, node);
+	}
 
-		//Update internal representation of tree
-		Folder parent = (Folder)this.selectedNode;
+	//Insert a node in the tree, then in the journal and the view which both read it from the tree
+	private void insertNode(Folder parent, Node node){
 		parent.addChild(node);
-		node.setParent(parent);
-
-		//Update lastInserted HashMap
-		this.lastInsertedNodes.clear();
-		this.lastInsertedNodes.put(0, node);
+		if(journal != null)
+			journal.logInsert(node);
+		viewUpdater.inserted(node);
 	}
 
-	//Same as ExplorerSwingView.addNodeToLastInsertedNode, but also add node in internal representation of the tree
-	public void addNodeToLastInsertedNode(Node node, int level) throws NoPreviousInsertedNodeException, LevelException {
-		Node currentNode = this.lastInsertedNodes.get(level - 1);
-
-		if(currentNode == null)
-			throw new NullPointerException("NoPreviousInsertedNodeException");
-
-		if (!(currentNode instanceof Folder)){
-			throw new NullPointerException("Last inserted is not a folder");
+	//Move a node and its subtree to another folder, in the swing view and in the internal representation of the tree
+	public void moveNode(Node node, Folder destination){
+		if(node == rootNode){
+			esv.showPopupError("Cannot move the root directory");
+			return;
+		}
+		else if(node.isAncestorOf(destination)){
+			esv.showPopupError("Cannot move a folder inside itself");
+			return;
 		}
 
-		//Update the swing view first because it will send the needed exceptions
-		esv.addNodeToLastInsertedNode(node, level);
+		//Update the journal first because it finds the node from its current position in the tree
+		if(journal != null)
+			journal.logMove(node, destination);
+		node.moveTo(destination);
+		viewUpdater.moved(node, destination);
+	}
 
-		//Update internal representation of tree
-		Folder parent = (Folder)currentNode;
-		parent.addChild(node);
-		node.setParent(parent);
+	//Rename a node, in the swing view and in the internal representation of the tree
+	public void renameNode(Node node, String name){
+		node.rename(name);
+		viewUpdater.changed(node);
+		if(journal != null)
+			journal.logRename(node, name);
+	}
+
+	//Replace a part of the content of a file, in the internal representation of the tree and in the journal
+	public void editFile(FileNode file, long start, long end, String text){
+		file.replace(start, end, text);
+		viewUpdater.changed(file);
+		if(journal != null)
+			journal.logEdit(file, start, end, text);
+	}
 
-		//Update lastInserted HashMap
-		this.lastInsertedNodes.put(level, node);
+	//Insert a whole subtree, built with its parents set by the folders, in the parent of the selected node. The root
+	//is linked once in the internal representation of the tree, the view shows its descendants with it
+	public void addSubtreeToParentNode(Node root) {
+		this.addNodeToParentNode(root);
 	}
 }
@@ -0,0 +1,984 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.zip.CRC32;
+
+/**
+ * Binary write-ahead journal of the operations done on the tree, used to rebuild the tree on startup.
+ *
+ * The records are serialized by the thread doing the operation and written by a background thread, which syncs the
+ * file once for all the records waiting in the queue (group commit). An insertion only takes a snapshot of the subtree
+ * inserted: the background thread serializes it, in records of a bounded size. Once as many nodes were logged as the
+ * tree holds (and at least CHECKPOINT_INTERVAL), a snapshot of the whole tree is written the same way in a checkpoint
+ * and the journal is emptied, so a recovery only replays the tail of the journal.
+ * File contents bigger than BLOB_THRESHOLD are written once in the blob directory and the records only reference them.
+ * The blobs that the new checkpoint does not reference are deleted once the journal is emptied.
+ * Imported files whose content was not read yet are recorded as references to the files of the disk, so logging an
+ * import does not read them: the replay reads them from the disk when they are needed, as they are then.
+ *
+ * The journal and the checkpoint start with a header giving their format and a generation. Emptying the journal starts
+ * a new generation, and a checkpoint records the generation of the journal it replaces: a journal that a crash left
+ * next to the checkpoint that replaced it is recognized by its generation, and is not replayed again.
+ */
+class Journal {
+    private static final int CHECKPOINT_INTERVAL = 1000;
+    private static final int BLOB_THRESHOLD = 64 * 1024;
+
+    //Bounds of a record of an insertion, so that a big subtree is never serialized in one array
+    private static final int RECORD_NODES = 1000;
+    private static final int RECORD_BYTES = 1024 * 1024;
+
+    //Header: magic number, version of the format, generation. The files of older versions can still be read, their
+    //records are a subset of the current ones
+    private static final int MAGIC = 0x4A524E4C;
+    private static final int FORMAT_VERSION = 3;
+    private static final int HEADER_SIZE = 16;
+
+    //Operations
+    private static final byte INSERT = 1;
+    private static final byte MOVE = 2;
+    private static final byte RENAME = 3;
+    private static final byte EDIT = 4;
+    //Nodes added at the end of a folder, a part of an insertion. The folders are written without their children
+    private static final byte INSERT_NODES = 5;
+    //End of an insertion, its aliases can be resolved
+    private static final byte INSERT_END = 6;
+
+    //Types of nodes
+    private static final byte FOLDER = 1;
+    private static final byte FILE = 2;
+    private static final byte ALIAS = 3;
+    private static final byte ARCHIVE = 4;
+    private static final byte ENTRY = 5;
+    private static final byte CHUNKED_FILE = 6;
+    private static final byte LAZY_FILE = 7;
+
+    //Storage of file contents
+    private static final byte INLINE = 1;
+    private static final byte BLOB = 2;
+
+    private File journalFile;
+    private File checkpointFile;
+    private File blobDirectory;
+    private Folder root;
+
+    private FileChannel channel;
+    private LinkedBlockingQueue<Task> queue = new LinkedBlockingQueue<>();
+    private Thread writer;
+    private long nodesSinceCheckpoint = 0;
+
+    //Nodes to log before the next checkpoint: the size of the tree when the last one was taken
+    private long checkpointThreshold = CHECKPOINT_INTERVAL;
+
+    //Generation of the journal file, only used by the background thread once the journal is open
+    private long generation;
+
+    //Blobs referenced by the checkpoint being written, only used by the background thread
+    private Set<String> checkpointBlobs;
+
+    //Aliases read during a replay, waiting for the file they point to
+    private HashMap<Alias, int[]> pendingAliases = new HashMap<>();
+
+    //Aliases read in the record being replayed, only kept once the whole record is applied
+    private HashMap<Alias, int[]> recordAliases = new HashMap<>();
+
+    //Dictionaries shared by the entries of archives, always stored as blobs so that they are written once
+    //Arrays are compared by identity, the entries of an archive hold the same array
+    private Map<byte[], String> dictionaryHashes = Collections.synchronizedMap(new WeakHashMap<>());
+    private HashMap<String, byte[]> dictionaries = new HashMap<>();
+
+    private Logger logger = Logger.getInstance();
+
+    /**
+     * Something for the background thread to do
+     */
+    private static class Task {
+        //A record serialized by the thread doing the operation
+        private byte[] record;
+        private HashMap<String, byte[]> blobs;
+
+        //A subtree serialized by the background thread: inserted at the path, or written as the checkpoint
+        private Snapshot snapshot;
+        private int[] path;
+        private boolean checkpoint;
+
+        private boolean close;
+
+        Task(byte[] record, HashMap<String, byte[]> blobs) {
+            this.record = record;
+            this.blobs = blobs;
+        }
+
+        Task(Snapshot snapshot, int[] path, boolean checkpoint) {
+            this.snapshot = snapshot;
+            this.path = path;
+            this.checkpoint = checkpoint;
+        }
+
+        //Number of nodes logged by the task
+        int getWeight() {
+            return snapshot != null ? snapshot.size : 1;
+        }
+    }
+
+    /**
+     * A subtree as it was when it was logged. Files and archives are copies sharing their content, which the later
+     * edits do not change, and aliases keep the path of their file
+     */
+    private static class Snapshot {
+        private final String name;
+        private Node node;
+        private ArrayList<Snapshot> children;
+        private int[] target;
+
+        //Number of nodes of the subtree
+        private int size = 1;
+
+        Snapshot(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * Destination of the records serialized by the background thread
+     */
+    private interface RecordSink {
+        void write(byte[] frame) throws IOException;
+    }
+
+    private Journal(File directory, Folder root) {
+        this.journalFile = new File(directory, "journal");
+        this.checkpointFile = new File(directory, "checkpoint");
+        this.blobDirectory = new File(directory, "blobs");
+        this.root = root;
+    }
+
+    /**
+     * Open the journal stored in a directory: replay the checkpoint and the journal into the root, then start
+     * journaling the new operations
+     *
+     * @param directory the directory of the journal, created if needed
+     * @param root the root of the tree, must be empty
+     * @return the opened journal
+     * @throws IOException if the journal cannot be read or opened
+     */
+    public static Journal open(File directory, Folder root) throws IOException {
+        Journal journal = new Journal(directory, root);
+        Files.createDirectories(journal.blobDirectory.toPath());
+
+        //Generation of the last journal contained in the checkpoint
+        long covered = 0;
+        if(journal.checkpointFile.exists()){
+            journal.replay(journal.checkpointFile, true, 0);
+            covered = journal.generation;
+        }
+
+        long validLength = 0;
+        if(journal.journalFile.exists())
+            validLength = journal.replay(journal.journalFile, false, covered);
+
+        journal.channel = FileChannel.open(journal.journalFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE);
+        if(validLength == 0){
+            //No journal, or one already contained in the checkpoint
+            journal.reset(covered + 1);
+            journal.channel.force(false);
+        }
+        else{
+            //Cut a record left incomplete by a crash before appending after it
+            journal.channel.truncate(validLength);
+            journal.channel.position(validLength);
+        }
+
+        journal.checkpointThreshold = Math.max(CHECKPOINT_INTERVAL, journal.treeSize());
+        journal.writer = new Thread(journal::writeLoop, "journal-writer");
+        journal.writer.setDaemon(true);
+        journal.writer.start();
+
+        return journal;
+    }
+
+    //Log the insertion of a node (and its subtree) that was just added to its parent. The contents are not read here,
+    //the background thread serializes the snapshot
+    public void logInsert(Node node){
+        Task task;
+        synchronized (Node.TREE_LOCK){
+            task = new Task(snapshot(node), path(node), false);
+        }
+        append(task);
+    }
+
+    //Log the move of a node, must be called before the node is moved
+    public void logMove(Node node, Folder destination){
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        try {
+            out.writeByte(MOVE);
+            writePath(out, node);
+            writePath(out, destination);
+        } catch (IOException e) {
+            logger.log(Logger.Level.ERROR, "Journal.logMove", e);
+            return;
+        }
+
+        append(bytes.toByteArray(), new HashMap<>());
+    }
+
+    //Log the renaming of a node
+    public void logRename(Node node, String name){
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        try {
+            out.writeByte(RENAME);
+            writePath(out, node);
+            out.writeUTF(name);
+        } catch (IOException e) {
+            logger.log(Logger.Level.ERROR, "Journal.logRename", e);
+            return;
+        }
+
+        append(bytes.toByteArray(), new HashMap<>());
+    }
+
+    //Record that a part of the content of a file was replaced
+    public void logEdit(FileNode file, long start, long end, String text){
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        HashMap<String, byte[]> blobs = new HashMap<>();
+
+        try {
+            out.writeByte(EDIT);
+            writePath(out, file);
+            out.writeLong(start);
+            out.writeLong(end);
+            writeContent(out, text, blobs);
+        } catch (IOException e) {
+            logger.log(Logger.Level.ERROR, "Journal.logEdit", e);
+            return;
+        }
+
+        append(bytes.toByteArray(), blobs);
+    }
+
+    //Write the records still in the queue and close the journal
+    public void close(){
+        Task task = new Task(null, null);
+        task.close = true;
+        queue.add(task);
+
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void append(byte[] payload, HashMap<String, byte[]> blobs){
+        append(new Task(frame(payload), blobs));
+    }
+
+    //Queue a task, and a checkpoint of the whole tree once the nodes logged since the last one are as many as the tree
+    //holds: the cost of writing the checkpoint is then shared by as many logged nodes
+    private synchronized void append(Task task){
+        queue.add(task);
+
+        nodesSinceCheckpoint += task.getWeight();
+        if(nodesSinceCheckpoint < checkpointThreshold)
+            return;
+        nodesSinceCheckpoint = 0;
+        checkpointThreshold = Math.max(CHECKPOINT_INTERVAL, treeSize());
+
+        //Taken now, so that the checkpoint holds exactly the records queued before it
+        Snapshot tree;
+        synchronized (Node.TREE_LOCK){
+            tree = snapshot(root);
+        }
+        queue.add(new Task(tree, new int[0], true));
+    }
+
+    private long treeSize(){
+        return root.getFolderCount() + root.getFileCount() + root.getAliasCount() + root.getArchiveCount();
+    }
+
+    //Snapshot of a subtree, must hold TREE_LOCK so that the subtree does not change meanwhile
+    private static Snapshot snapshot(Node node){
+        Snapshot snapshot = new Snapshot(node.getName());
+
+        if(node instanceof Folder){
+            List<Node> children = ((Folder) node).getChildren();
+            snapshot.children = new ArrayList<>(children.size());
+            for(Node child : children){
+                Snapshot s = snapshot(child);
+                snapshot.children.add(s);
+                snapshot.size += s.size;
+            }
+        }
+        else if(node instanceof Alias)
+            snapshot.target = path(((Alias) node).getFileNode());
+        else{
+            try {
+                snapshot.node = (Node) node.clone();
+            } catch (CloneNotSupportedException e) {
+                //Node implements Cloneable
+                throw new IllegalStateException(e);
+            }
+        }
+
+        return snapshot;
+    }
+
+    //Add the length and the checksum of a record in front of it
+    private static byte[] frame(byte[] payload){
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+
+        ByteBuffer buffer = ByteBuffer.allocate(payload.length + 8);
+        buffer.putInt(payload.length);
+        buffer.putInt((int) crc.getValue());
+        buffer.put(payload);
+
+        return buffer.array();
+    }
+
+    //Loop of the background thread
+    private void writeLoop(){
+        ArrayList<Task> batch = new ArrayList<>();
+        boolean closed = false;
+
+        try {
+            while(!closed){
+                //Wait for a record, then take every record already waiting to sync them all at once
+                batch.add(queue.take());
+                queue.drainTo(batch);
+
+                for(Task task : batch){
+                    if(task.close){
+                        closed = true;
+                        continue;
+                    }
+
+                    if(task.checkpoint)
+                        writeCheckpoint(task.snapshot);
+                    else if(task.snapshot != null)
+                        writeInsertion(task.path, task.snapshot, frame -> writeFully(channel, frame));
+                    else{
+                        writeBlobs(task.blobs);
+                        writeFully(channel, task.record);
+                    }
+                }
+
+                channel.force(false);
+                batch.clear();
+            }
+
+            channel.close();
+        } catch (IOException | InterruptedException e) {
+            logger.log(Logger.Level.ERROR, "Journal.writeLoop", e);
+        }
+    }
+
+    //Replace the checkpoint, then empty the journal since the checkpoint contains everything it held. The checkpoint is
+    //the insertion of the children of the root
+    private void writeCheckpoint(Snapshot tree) throws IOException {
+        File tmp = new File(checkpointFile.getPath() + ".tmp");
+        HashSet<String> referenced = new HashSet<>();
+        checkpointBlobs = referenced;
+
+        try (FileChannel out = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            RecordSink sink = frame -> writeFully(out, frame);
+            writeFully(out, header(generation));
+            writeFolder(new int[0], tree, sink);
+            writeEnd(sink);
+            out.force(true);
+        } finally {
+            checkpointBlobs = null;
+        }
+
+        Files.move(tmp.toPath(), checkpointFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        reset(generation + 1);
+        deleteBlobs(referenced);
+    }
+
+    //Delete the blobs the checkpoint does not reference. Nothing else does: the journal was just emptied, and the
+    //records written from now on write their blobs again if they were deleted
+    private void deleteBlobs(Set<String> referenced){
+        File[] files = blobDirectory.listFiles();
+        if(files == null)
+            return;
+
+        for(File file : files){
+            if(referenced.contains(file.getName()))
+                continue;
+            try {
+                Files.deleteIfExists(file.toPath());
+            } catch (IOException e) {
+                logger.log(Logger.Level.ERROR, "Journal.deleteBlobs", e);
+            }
+        }
+    }
+
+    //Write the insertion of a subtree at a path: the node, then the children of its folders in pre-order so that the
+    //parent of every record is in place when it is replayed, then the end of the insertion
+    private void writeInsertion(int[] path, Snapshot node, RecordSink sink) throws IOException {
+        writeNodes(Arrays.copyOf(path, path.length - 1), Collections.singletonList(node), sink);
+        if(node.children != null)
+            writeFolder(path, node, sink);
+        writeEnd(sink);
+    }
+
+    //Write the children of a folder, then those of its subfolders
+    private void writeFolder(int[] path, Snapshot folder, RecordSink sink) throws IOException {
+        writeNodes(path, folder.children, sink);
+
+        for(int i = 0; i < folder.children.size(); i++){
+            Snapshot child = folder.children.get(i);
+            if(child.children != null){
+                int[] childPath = Arrays.copyOf(path, path.length + 1);
+                childPath[path.length] = i;
+                writeFolder(childPath, child, sink);
+            }
+        }
+    }
+
+    //Write nodes added at the end of a folder, in records of at most RECORD_NODES nodes and about RECORD_BYTES bytes,
+    //blobs included
+    private void writeNodes(int[] path, List<Snapshot> nodes, RecordSink sink) throws IOException {
+        int next = 0;
+        while(next < nodes.size()){
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(body);
+            HashMap<String, byte[]> blobs = new HashMap<>();
+            long blobBytes = 0;
+            int count = 0;
+
+            while(next < nodes.size() && count < RECORD_NODES && out.size() + blobBytes < RECORD_BYTES){
+                writeSnapshot(out, nodes.get(next++), blobs);
+                count++;
+                blobBytes = 0;
+                for(byte[] blob : blobs.values())
+                    blobBytes += blob.length;
+            }
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(body.size() + 16 + 4 * path.length);
+            DataOutputStream record = new DataOutputStream(bytes);
+            record.writeByte(INSERT_NODES);
+            writeIndexes(record, path);
+            record.writeInt(count);
+            body.writeTo(record);
+
+            writeBlobs(blobs);
+            sink.write(frame(bytes.toByteArray()));
+        }
+    }
+
+    private void writeEnd(RecordSink sink) throws IOException {
+        sink.write(frame(new byte[]{INSERT_END}));
+    }
+
+    //Write a node of a snapshot, a folder without its children
+    private void writeSnapshot(DataOutputStream out, Snapshot node, HashMap<String, byte[]> blobs) throws IOException {
+        if(node.children != null){
+            out.writeByte(FOLDER);
+            out.writeUTF(node.name);
+            out.writeInt(0);
+        }
+        else if(node.target != null){
+            out.writeByte(ALIAS);
+            out.writeUTF(node.name);
+            writeIndexes(out, node.target);
+        }
+        else{
+            writeNode(out, node.node, blobs);
+
+            //The copy is not in the tree, the content it read is not counted in the budget
+            if(node.node instanceof FileNode)
+                ContentStore.getInstance().remove((FileNode) node.node);
+        }
+    }
+
+    //Empty the journal and start a new generation
+    private void reset(long generation) throws IOException {
+        this.generation = generation;
+        channel.truncate(0);
+        channel.position(0);
+        writeFully(channel, header(generation));
+    }
+
+    private static byte[] header(long generation){
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE);
+        buffer.putInt(MAGIC);
+        buffer.putInt(FORMAT_VERSION);
+        buffer.putLong(generation);
+        return buffer.array();
+    }
+
+    //Write the contents that are not in the blob directory yet
+    private void writeBlobs(HashMap<String, byte[]> blobs) throws IOException {
+        if(checkpointBlobs != null)
+            checkpointBlobs.addAll(blobs.keySet());
+
+        for(Map.Entry<String, byte[]> blob : blobs.entrySet()){
+            File file = new File(blobDirectory, blob.getKey());
+            if(file.exists())
+                continue;
+
+            File tmp = new File(blobDirectory, blob.getKey() + ".tmp");
+            try (FileChannel out = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                writeFully(out, blob.getValue());
+                out.force(true);
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, byte[] bytes) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while(buffer.hasRemaining())
+            channel.write(buffer);
+    }
+
+    //Path from the root to a node, as the indexes of the nodes among the children of their parent
+    private static int[] path(Node node){
+        int depth = 0;
+        for(Node n = node; n.getParent() != null; n = n.getParent())
+            depth++;
+
+        int[] path = new int[depth];
+        for(Node n = node; n.getParent() != null; n = n.getParent())
+            path[--depth] = ((Folder) n.getParent()).getChildren().indexOf(n);
+        return path;
+    }
+
+    private void writePath(DataOutputStream out, Node node) throws IOException {
+        writeIndexes(out, path(node));
+    }
+
+    private static void writeIndexes(DataOutputStream out, int[] path) throws IOException {
+        out.writeInt(path.length);
+        for(int index : path)
+            out.writeInt(index);
+    }
+
+    private void writeNode(DataOutputStream out, Node node, HashMap<String, byte[]> blobs) throws IOException {
+        if(node instanceof Folder){
+            out.writeByte(FOLDER);
+            out.writeUTF(node.getName());
+
+            List<Node> children = ((Folder) node).getChildren();
+            out.writeInt(children.size());
+            for(Node child : children)
+                writeNode(out, child, blobs);
+        }
+        else if(node instanceof ArchiveEntry){
+            //Kept compressed, so that the replay does not have to compress it again
+            ArchiveEntry entry = (ArchiveEntry) node;
+            out.writeByte(ENTRY);
+            out.writeUTF(node.getName());
+            out.writeByte(entry.getMethod().ordinal());
+            out.writeByte(entry.getDeflaterLevel());
+            out.writeLong(entry.getSize());
+            writeBytes(out, entry.getData(), blobs);
+            writeDictionary(out, entry.getDictionary(), blobs);
+            out.writeInt(entry.getChecksum());
+        }
+        else if(node instanceof FileNode){
+            FileNode file = (FileNode) node;
+            Path source = file.getSource();
+
+            if(source != null){
+                //Only the path is recorded, the content is not read
+                out.writeByte(LAZY_FILE);
+                out.writeUTF(node.getName());
+                out.writeUTF(source.toAbsolutePath().toString());
+                out.writeLong(file.getSize());
+            }
+            else{
+                //Files kept in chunks stay in chunks after a replay
+                out.writeByte(file.isChunked() ? CHUNKED_FILE : FILE);
+                out.writeUTF(node.getName());
+                if(file.isChunked())
+                    writeRope(out, file.getRope(), blobs);
+                else
+                    writeContent(out, file.getContent(), blobs);
+            }
+        }
+        else if(node instanceof Alias){
+            out.writeByte(ALIAS);
+            out.writeUTF(node.getName());
+            writePath(out, ((Alias) node).getFileNode());
+        }
+        else if(node instanceof Archive){
+            Archive archive = (Archive) node;
+            out.writeByte(ARCHIVE);
+            out.writeUTF(node.getName());
+            out.writeUTF(archive.getType().getExtension());
+            out.writeInt(archive.getCompressionLevel());
+            writeNode(out, (Node) archive.getContent(), blobs);
+        }
+    }
+
+    //Write small contents in the record, and only a reference to big ones
+    private void writeContent(DataOutputStream out, String content, HashMap<String, byte[]> blobs) throws IOException {
+        writeBytes(out, content.getBytes(StandardCharsets.UTF_8), blobs);
+    }
+
+    //Same as writeContent, the chunks are encoded one at a time instead of being joined in one string first
+    private void writeRope(DataOutputStream out, Rope content, HashMap<String, byte[]> blobs) throws IOException {
+        long length = content.getByteLength();
+        if(length > Integer.MAX_VALUE)
+            throw new IOException("Content of " + length + " bytes too big for the journal");
+
+        byte[] bytes = new byte[(int) length];
+        int offset = 0;
+        for(Iterator<byte[]> chunks = content.utf8Chunks(); chunks.hasNext(); ){
+            byte[] chunk = chunks.next();
+            System.arraycopy(chunk, 0, bytes, offset, chunk.length);
+            offset += chunk.length;
+        }
+        writeBytes(out, bytes, blobs);
+    }
+
+    private void writeBytes(DataOutputStream out, byte[] bytes, HashMap<String, byte[]> blobs) throws IOException {
+        if(bytes.length < BLOB_THRESHOLD){
+            out.writeByte(INLINE);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+        else{
+            String hash = hash(bytes);
+            blobs.put(hash, bytes);
+            out.writeByte(BLOB);
+            out.writeUTF(hash);
+        }
+    }
+
+    private void writeDictionary(DataOutputStream out, byte[] dictionary, HashMap<String, byte[]> blobs)
+            throws IOException {
+        if(dictionary == null){
+            out.writeBoolean(false);
+            return;
+        }
+
+        String hash = dictionaryHashes.computeIfAbsent(dictionary, Journal::hash);
+        blobs.put(hash, dictionary);
+        out.writeBoolean(true);
+        out.writeUTF(hash);
+    }
+
+    private static String hash(byte[] bytes){
+        try {
+            StringBuilder builder = new StringBuilder();
+            for(byte b : MessageDigest.getInstance("SHA-256").digest(bytes))
+                builder.append(String.format("%02x", b));
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            //Every implementation of Java must support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Apply the records of a file to the tree, and keep its generation
+     *
+     * @param file the journal or the checkpoint
+     * @param isCheckpoint true if the file is a checkpoint, whose aliases can only be resolved once it is fully read
+     * @param covered the generation of the last journal contained in the checkpoint, a journal up to this generation
+     *                is not replayed
+     * @return the length of the valid part of the file, 0 if the file was not replayed
+     * @throws IOException if the file cannot be read, or is not in the format of this version
+     */
+    private long replay(File file, boolean isCheckpoint, long covered) throws IOException {
+        long validLength = HEADER_SIZE;
+        long fileLength = file.length();
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            int magic;
+            int version;
+            try {
+                magic = in.readInt();
+                version = in.readInt();
+                generation = in.readLong();
+            } catch (EOFException e) {
+                //A journal emptied by a crash before its header was written
+                if(isCheckpoint)
+                    throw new IOException("Truncated checkpoint " + file);
+                return 0;
+            }
+
+            if(magic != MAGIC || version < 1 || version > FORMAT_VERSION)
+                throw new IOException(file + " is not a journal of this version (" + version + ")");
+            if(!isCheckpoint && generation <= covered){
+                logger.log(Logger.Level.INFO, "Journal already contained in the checkpoint, not replayed");
+                return 0;
+            }
+
+            while(true){
+                int length;
+                int checksum;
+                byte[] payload;
+                try {
+                    length = in.readInt();
+                    checksum = in.readInt();
+                } catch (EOFException e) {
+                    //End of the file, or a record cut by a crash
+                    break;
+                }
+
+                //Checked before allocating anything: a corrupted length could be negative or huge
+                if(length < 0 || length > fileLength - validLength - 8){
+                    logger.log(Logger.Level.WARNING, "Record cut or corrupted in " + file.getName() + ", replay stopped");
+                    break;
+                }
+                payload = new byte[length];
+                in.readFully(payload);
+
+                CRC32 crc = new CRC32();
+                crc.update(payload);
+                if((int) crc.getValue() != checksum){
+                    logger.log(Logger.Level.WARNING, "Corrupted record in " + file.getName() + ", replay stopped");
+                    break;
+                }
+
+                //A record that cannot be applied is handled like a record cut by a crash, it is the end of the journal
+                try {
+                    apply(new DataInputStream(new ByteArrayInputStream(payload)), isCheckpoint);
+                } catch (IOException | RuntimeException e) {
+                    logger.log(Logger.Level.WARNING, "Invalid record in " + file.getName() + ", replay stopped: " + e);
+                    break;
+                } finally {
+                    recordAliases.clear();
+                }
+
+                validLength += 8 + length;
+            }
+        }
+
+        //Aliases of an insertion cut by a crash, the files they point to may be missing
+        if(!isCheckpoint && !pendingAliases.isEmpty()){
+            logger.log(Logger.Level.WARNING, "Insertion cut in " + file.getName() + ", its aliases are removed");
+            for(Alias alias : pendingAliases.keySet())
+                ((Folder) alias.getParent()).removeChild(alias);
+            pendingAliases.clear();
+        }
+
+        try {
+            resolveAliases(pendingAliases);
+        } catch (RuntimeException e) {
+            throw new IOException("Invalid alias in " + file, e);
+        } finally {
+            pendingAliases.clear();
+        }
+
+        return validLength;
+    }
+
+    //Apply a record. The tree is only modified once the record is fully decoded, and is left as it was on an error
+    private void apply(DataInputStream in, boolean isCheckpoint) throws IOException {
+        byte operation = in.readByte();
+
+        if(operation == INSERT){
+            Folder parent = (Folder) resolve(readPath(in));
+            Node node = readNode(in);
+            parent.addChild(node);
+
+            //The aliases of a checkpoint may point to the files of the following records
+            try {
+                if(isCheckpoint)
+                    pendingAliases.putAll(recordAliases);
+                else
+                    resolveAliases(recordAliases);
+            } catch (RuntimeException e) {
+                parent.removeChild(node);
+                throw e;
+            }
+        }
+        else if(operation == INSERT_NODES){
+            Folder parent = (Folder) resolve(readPath(in));
+            int count = in.readInt();
+            if(count < 0 || count > in.available())
+                throw new IOException("Invalid number of nodes: " + count);
+
+            ArrayList<Node> nodes = new ArrayList<>(count);
+            for(int i = 0; i < count; i++)
+                nodes.add(readNode(in));
+            parent.addChildren(nodes);
+
+            //The aliases may point to the files of the following records of the insertion
+            pendingAliases.putAll(recordAliases);
+        }
+        else if(operation == INSERT_END)
+            resolveAliases(pendingAliases);
+        else if(operation == MOVE){
+            Node node = resolve(readPath(in));
+            Folder destination = (Folder) resolve(readPath(in));
+            node.moveTo(destination);
+        }
+        else if(operation == RENAME){
+            Node node = resolve(readPath(in));
+            node.rename(in.readUTF());
+        }
+        else if(operation == EDIT){
+            FileNode file = (FileNode) resolve(readPath(in));
+            long start = in.readLong();
+            long end = in.readLong();
+            file.replace(start, end, readContent(in));
+        }
+        else
+            throw new IOException("Unknown operation in the journal: " + operation);
+    }
+
+    private int[] readPath(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if(length < 0 || length > in.available() / 4)
+            throw new IOException("Invalid path length: " + length);
+
+        int[] path = new int[length];
+        for(int i = 0; i < path.length; i++)
+            path[i] = in.readInt();
+        return path;
+    }
+
+    //Get the node at the end of a path
+    private Node resolve(int[] path){
+        Node node = root;
+        for(int index : path)
+            node = ((Folder) node).getChildren().get(index);
+        return node;
+    }
+
+    private Node readNode(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        String name = in.readUTF();
+
+        switch (type){
+            case FOLDER:
+                Folder folder = new Folder(name);
+                int childCount = in.readInt();
+                ArrayList<Node> children = new ArrayList<>();
+                for(int i = 0; i < childCount; i++){
+                    children.add(readNode(in));
+                }
+                folder.addChildren(children);
+                return folder;
+
+            case FILE:
+                return new FileNode(name, readContent(in));
+
+            case CHUNKED_FILE:
+                return new FileNode(name, Rope.of(readContent(in)));
+
+            case LAZY_FILE:
+                Path source = Paths.get(in.readUTF());
+                long recordedSize = in.readLong();
+                return new FileNode(name, source, currentSize(source, recordedSize));
+
+            case ENTRY:
+                ArchiveEntry.Method method = ArchiveEntry.Method.values()[in.readByte()];
+                int level = in.readByte();
+                long size = in.readLong();
+                byte[] data = readBytes(in);
+                byte[] dictionary = readDictionary(in);
+                //The recorded checksum is kept, so that a corruption of the journal is reported by verify
+                return ArchiveEntry.restore(name, data, size, method, level, dictionary, in.readInt());
+
+            case ALIAS:
+                Alias alias = new Alias(name, null);
+                recordAliases.put(alias, readPath(in));
+                return alias;
+
+            case ARCHIVE:
+                Archive archive = new Archive(name, Archive.ArchiveTypes.getTypeFromExtension(in.readUTF()),
+                        in.readInt());
+                archive.setContent(readNode(in));
+                return archive;
+        }
+
+        throw new IOException("Unknown type of node in the journal: " + type);
+    }
+
+    //Size of a file of the disk referenced by the journal. It may have changed since it was recorded, the content read
+    //later is the current one
+    private long currentSize(Path source, long recordedSize) {
+        try {
+            long size = Files.size(source);
+            if(size != recordedSize)
+                logger.log(Logger.Level.WARNING, "Journal: " + source + " changed since it was imported");
+            return size;
+        } catch (IOException e) {
+            logger.log(Logger.Level.WARNING, "Journal: " + source + " can no longer be read");
+            return recordedSize;
+        }
+    }
+
+    private String readContent(DataInputStream in) throws IOException {
+        return new String(readBytes(in), StandardCharsets.UTF_8);
+    }
+
+    private byte[] readBytes(DataInputStream in) throws IOException {
+        if(in.readByte() == INLINE){
+            int length = in.readInt();
+            if(length < 0 || length > in.available())
+                throw new IOException("Invalid content length: " + length);
+
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            return bytes;
+        }
+
+        return Files.readAllBytes(blobFile(in.readUTF()).toPath());
+    }
+
+    //File of a blob, the hash is checked so that a corrupted record cannot point outside of the blob directory
+    private File blobFile(String hash) throws IOException {
+        if(!hash.matches("[0-9a-f]{64}"))
+            throw new IOException("Invalid blob hash: " + hash);
+        return new File(blobDirectory, hash);
+    }
+
+    private byte[] readDictionary(DataInputStream in) throws IOException {
+        if(!in.readBoolean())
+            return null;
+
+        String hash = in.readUTF();
+        byte[] dictionary = dictionaries.get(hash);
+        if(dictionary == null){
+            dictionary = Files.readAllBytes(blobFile(hash).toPath());
+            dictionaries.put(hash, dictionary);
+            dictionaryHashes.put(dictionary, hash);
+        }
+        return dictionary;
+    }
+
+    //Link the aliases read to the files they point to, and forget them. Those that cannot be linked stay in the map
+    private void resolveAliases(HashMap<Alias, int[]> aliases){
+        for(Iterator<Map.Entry<Alias, int[]>> i = aliases.entrySet().iterator(); i.hasNext(); ){
+            Map.Entry<Alias, int[]> pending = i.next();
+            pending.getKey().setFileNode((FileNode) resolve(pending.getValue()));
+            i.remove();
+        }
+    }
+}
@@ -0,0 +1,571 @@
+import javax.swing.JTree;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Replay scripted sessions against GuiHandler, with a view that does not display anything, on synthetic trees.
+ *
+ * Each scenario gets a freshly generated tree and runs its events in the order of its script, picking their targets at
+ * random among the nodes of the tree. The warmup runs on another tree, and everything a scenario added to the root is
+ * removed once it is done, so that a scenario does not change the trees of the following ones. The report gives the throughput, the latency percentiles of the events, the peak
+ * heap and the time spent in GC for each scenario.
+ *
+ * Usage: java LoadHarness [--fan-out=8] [--depth=4] [--folder-ratio=0.5] [--content-size=2048] [--content-sigma=1.0]
+ *        [--alias-ratio=0.05] [--archive-ratio=0.05] [--seed=42] [--warmup=50] [--scenario=name=copy:200,display:500]...
+ *
+ * The events of a script are copy, archive, display and alias.
+ */
+public class LoadHarness {
+    private static final String FAN_OUT_OPTION = "--fan-out=";
+    private static final String DEPTH_OPTION = "--depth=";
+    private static final String FOLDER_RATIO_OPTION = "--folder-ratio=";
+    private static final String CONTENT_SIZE_OPTION = "--content-size=";
+    private static final String CONTENT_SIGMA_OPTION = "--content-sigma=";
+    private static final String ALIAS_RATIO_OPTION = "--alias-ratio=";
+    private static final String ARCHIVE_RATIO_OPTION = "--archive-ratio=";
+    private static final String SEED_OPTION = "--seed=";
+    private static final String WARMUP_OPTION = "--warmup=";
+    private static final String SCENARIO_OPTION = "--scenario=";
+
+    private static final String[] DEFAULT_SCENARIOS = {
+            "browse=display:2000",
+            "copy=copy:200,display:200",
+            "archive=archive:50,display:100",
+            "mixed=copy:100,archive:20,display:500,alias:200"
+    };
+
+    private GuiHandler gui;
+    private StubExplorerView view;
+    private TreeGenerator generator;
+    private long seed;
+    private int warmup;
+
+    public LoadHarness(GuiHandler gui, StubExplorerView view, TreeGenerator generator, long seed, int warmup) {
+        this.gui = gui;
+        this.view = view;
+        this.generator = generator;
+        this.seed = seed;
+        this.warmup = warmup;
+    }
+
+    public static void main(String[] args) throws Exception {
+        TreeGenerator generator = new TreeGenerator();
+        long seed = 42;
+        int warmup = 50;
+        ArrayList<String> scenarios = new ArrayList<>();
+
+        try {
+            for (String arg : args) {
+                if (arg.startsWith(FAN_OUT_OPTION))
+                    generator.fanOut = Integer.parseInt(arg.substring(FAN_OUT_OPTION.length()));
+                else if (arg.startsWith(DEPTH_OPTION))
+                    generator.depth = Integer.parseInt(arg.substring(DEPTH_OPTION.length()));
+                else if (arg.startsWith(FOLDER_RATIO_OPTION))
+                    generator.folderRatio = Double.parseDouble(arg.substring(FOLDER_RATIO_OPTION.length()));
+                else if (arg.startsWith(CONTENT_SIZE_OPTION))
+                    generator.contentSize = Integer.parseInt(arg.substring(CONTENT_SIZE_OPTION.length()));
+                else if (arg.startsWith(CONTENT_SIGMA_OPTION))
+                    generator.contentSigma = Double.parseDouble(arg.substring(CONTENT_SIGMA_OPTION.length()));
+                else if (arg.startsWith(ALIAS_RATIO_OPTION))
+                    generator.aliasRatio = Double.parseDouble(arg.substring(ALIAS_RATIO_OPTION.length()));
+                else if (arg.startsWith(ARCHIVE_RATIO_OPTION))
+                    generator.archiveRatio = Double.parseDouble(arg.substring(ARCHIVE_RATIO_OPTION.length()));
+                else if (arg.startsWith(SEED_OPTION))
+                    seed = Long.parseLong(arg.substring(SEED_OPTION.length()));
+                else if (arg.startsWith(WARMUP_OPTION))
+                    warmup = Integer.parseInt(arg.substring(WARMUP_OPTION.length()));
+                else if (arg.startsWith(SCENARIO_OPTION))
+                    scenarios.add(arg.substring(SCENARIO_OPTION.length()));
+                else {
+                    System.err.println("Unknown argument: " + arg);
+                    System.exit(1);
+                }
+            }
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid number in the arguments: " + e.getMessage());
+            System.exit(1);
+        }
+
+        if(scenarios.isEmpty())
+            scenarios.addAll(Arrays.asList(DEFAULT_SCENARIOS));
+
+        //The events are logged at INFO, it would measure the logger more than the tree
+        Logger.setLevel(Logger.Level.WARNING);
+        Logger.instantiate(new STDOutLogWriter());
+
+        StubExplorerView view = new StubExplorerView();
+        LoadHarness harness = new LoadHarness(GuiHandler.instantiate(view), view, generator, seed, warmup);
+
+        System.out.println(String.format("%-10s %8s %10s %9s %9s %9s %9s %9s %8s %6s",
+                "scenario", "events", "events/s", "p50 us", "p90 us", "p99 us", "p99.9 us", "max us", "heap MB",
+                "gc ms"));
+        for(String scenario : scenarios){
+            int separator = scenario.indexOf('=');
+            if(separator < 0){
+                System.err.println("Scenarios are given as name=event:count,...: " + scenario);
+                System.exit(1);
+            }
+
+            Report report = harness.run(scenario.substring(0, separator), Script.parse(scenario.substring(separator + 1)));
+            System.out.println(report);
+            for(String line : report.getEventLines())
+                System.out.println(line);
+        }
+
+        System.exit(0);
+    }
+
+    /**
+     * Run a scenario on a new tree
+     *
+     * @param name the name of the scenario
+     * @param script the events to run
+     * @return the measures of the scenario
+     */
+    public Report run(String name, Script script) {
+        Random random = new Random(seed);
+        Folder root = gui.getRootNode();
+        ArrayList<Node> initial = new ArrayList<>(root.getChildren());
+
+        Folder tree = generator.generate("scenario-" + name, random);
+        List<Script.Event> events = script.expand(random);
+
+        //Warm up the code of the events without measuring it, on a tree of its own so that the measured tree is not
+        //modified before the scenario
+        Random warmupRandom = new Random(seed + 1);
+        Folder warmupTree = generator.generate("warmup-" + name, warmupRandom);
+        root.addChild(warmupTree);
+        Targets warmupTargets = new Targets(warmupTree);
+        for(int i = 0; i < Math.min(warmup, events.size()); i++)
+            runEvent(events.get(i), warmupTargets, warmupRandom);
+        removeAdded(root, initial);
+
+        root.addChild(tree);
+        Targets targets = new Targets(tree);
+
+        Report report = new Report(name);
+        report.start();
+
+        for(Script.Event event : events){
+            long start = System.nanoTime();
+            runEvent(event, targets, random);
+            report.record(event, System.nanoTime() - start);
+        }
+
+        report.stop();
+        removeAdded(root, initial);
+        return report;
+    }
+
+    //Remove the children of the root that are not in the list: the trees of the scenario, and what its events added
+    private static void removeAdded(Folder root, List<Node> initial) {
+        Set<Node> kept = Collections.newSetFromMap(new IdentityHashMap<>());
+        kept.addAll(initial);
+
+        for(Node child : new ArrayList<>(root.getChildren()))
+            if(!kept.contains(child))
+                root.removeChild(child);
+    }
+
+    private void runEvent(Script.Event event, Targets targets, Random random) {
+        switch (event){
+            case COPY:
+                Node copied = targets.pick(targets.copyable, random);
+                view.select(copied);
+                gui.createCopyEvent(copied);
+                break;
+
+            case ARCHIVE:
+                Node archived = targets.pick(targets.folders, random);
+                view.select(archived);
+                gui.createArchiveEvent(archived);
+                break;
+
+            case DISPLAY:
+                Node displayed = targets.pick(targets.all, random);
+                view.select(displayed);
+                gui.doubleClickEvent(displayed);
+                break;
+
+            case ALIAS:
+                Node file = targets.pick(targets.files, random);
+                view.select(file);
+                gui.createAliasEvent(file);
+                break;
+        }
+    }
+
+    /**
+     * The nodes of the generated tree the events can be run on
+     */
+    private static class Targets {
+        private ArrayList<Node> all = new ArrayList<>();
+        private ArrayList<Node> copyable = new ArrayList<>();
+        private ArrayList<Node> folders = new ArrayList<>();
+        private ArrayList<Node> files = new ArrayList<>();
+
+        Targets(Folder tree) {
+            collect(tree, tree);
+        }
+
+        private void collect(Node node, Folder tree) {
+            all.add(node);
+            //A copy of the root of the generated tree would be added to the root, next to the tree
+            if(!(node instanceof Alias) && node != tree)
+                copyable.add(node);
+            if(node instanceof FileNode)
+                files.add(node);
+
+            if(node instanceof Folder){
+                //The root of the generated tree holds the whole tree, archiving it would measure only that
+                if(node != tree)
+                    folders.add(node);
+                for(Node child : ((Folder) node).getChildren())
+                    collect(child, tree);
+            }
+        }
+
+        Node pick(ArrayList<Node> nodes, Random random) {
+            if(nodes.isEmpty())
+                return all.get(0);
+            return nodes.get(random.nextInt(nodes.size()));
+        }
+    }
+}
+
+/**
+ * Events of a scenario, as a list of events and how many times to run them
+ */
+class Script {
+    enum Event {
+        COPY,
+        ARCHIVE,
+        DISPLAY,
+        ALIAS
+    }
+
+    private LinkedHashMap<Event, Integer> counts = new LinkedHashMap<>();
+
+    //Parse a script such as "copy:200,display:500"
+    public static Script parse(String text) {
+        Script script = new Script();
+
+        for(String part : text.split(",")){
+            String[] event = part.trim().split(":");
+            if(event.length != 2)
+                throw new IllegalArgumentException("Events are given as event:count: " + part);
+
+            script.counts.merge(Event.valueOf(event[0].toUpperCase()), Integer.parseInt(event[1]), Integer::sum);
+        }
+
+        return script;
+    }
+
+    //All the events of the script, interleaved at random as in a real session
+    public List<Event> expand(Random random) {
+        ArrayList<Event> events = new ArrayList<>();
+        for(Map.Entry<Event, Integer> count : counts.entrySet())
+            for(int i = 0; i < count.getValue(); i++)
+                events.add(count.getKey());
+
+        Collections.shuffle(events, random);
+        return events;
+    }
+}
+
+/**
+ * Build random trees of folders, files, aliases and archives
+ */
+class TreeGenerator {
+    private static final String[] WORDS = {"alpha", "beta", "gamma", "delta", "config", "value", "error", "request",
+            "user", "id", "timestamp", "level", "INFO", "WARN", "path", "size", "true", "false", "null", "0", "1", "42"};
+
+    //Number of children of each folder
+    int fanOut = 8;
+
+    //Number of levels of folders below the root
+    int depth = 4;
+
+    //Probability for a child of a folder to be a folder, the last level only holds files
+    double folderRatio = 0.5;
+
+    //Median size of the files in bytes, and spread of the log-normal distribution of the sizes
+    int contentSize = 2048;
+    double contentSigma = 1.0;
+
+    //Probability for a file to get an alias, and for a folder to be replaced by an archive of its content
+    double aliasRatio = 0.05;
+    double archiveRatio = 0.05;
+
+    private Archive.ArchiveTypes[] archiveTypes = Archive.ArchiveTypes.values();
+
+    /**
+     * Generate a tree
+     *
+     * @param name the name of the root folder
+     * @param random the source of randomness, the same seed gives the same tree
+     * @return the root folder, not attached to any tree
+     */
+    public Folder generate(String name, Random random) {
+        Folder root = generateFolder(name, 0, random);
+
+        //The aliases are added once all the files exist, next to a random file
+        ArrayList<FileNode> files = new ArrayList<>();
+        collectFiles(root, files);
+        for(FileNode file : files){
+            if(random.nextDouble() < aliasRatio){
+                Folder parent = (Folder) file.getParent();
+                Alias alias = new Alias(file.getName() + "(alias)", file);
+                parent.addChild(alias);
+            }
+        }
+
+        return root;
+    }
+
+    private Folder generateFolder(String name, int level, Random random) {
+        Folder folder = new Folder(name);
+        ArrayList<Node> children = new ArrayList<>();
+
+        for(int i = 0; i < fanOut; i++){
+            Node child;
+
+            if(level < depth && random.nextDouble() < folderRatio){
+                Folder subfolder = generateFolder("folder" + i, level + 1, random);
+
+                //Archives of folders that may already hold archives give nested archives
+                if(random.nextDouble() < archiveRatio){
+                    Archive.ArchiveTypes type = archiveTypes[random.nextInt(archiveTypes.length)];
+                    child = new Archiver(type).buildArchive(subfolder, "archive" + i, random.nextInt(101));
+                }
+                else
+                    child = subfolder;
+            }
+            else
+                child = new FileNode("file" + i + ".txt", generateContent(random));
+
+            children.add(child);
+        }
+
+        folder.addChildren(children);
+        return folder;
+    }
+
+    //Text of words, with a log-normal size around contentSize
+    private String generateContent(Random random) {
+        long size = Math.round(contentSize * Math.exp(contentSigma * random.nextGaussian()));
+        StringBuilder content = new StringBuilder((int) size + 16);
+
+        while(content.length() < size){
+            content.append(WORDS[random.nextInt(WORDS.length)]);
+            content.append(random.nextInt(10) == 0 ? '\n' : ' ');
+        }
+
+        return content.toString();
+    }
+
+    private static void collectFiles(Folder folder, ArrayList<FileNode> files) {
+        for(Node n : folder.getChildren()){
+            if(n instanceof Folder)
+                collectFiles((Folder) n, files);
+            else if(n instanceof FileNode)
+                files.add((FileNode) n);
+        }
+    }
+}
+
+/**
+ * Measures of a scenario
+ */
+class Report {
+    private String name;
+    private LinkedHashMap<Script.Event, ArrayList<Long>> latencies = new LinkedHashMap<>();
+
+    private long startTime;
+    private long duration;
+    private long startGcTime;
+    private long gcTime;
+    private long peakHeap;
+
+    Report(String name) {
+        this.name = name;
+    }
+
+    void start() {
+        System.gc();
+        for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+            if(pool.getType() == MemoryType.HEAP)
+                pool.resetPeakUsage();
+
+        startGcTime = getGcTime();
+        startTime = System.nanoTime();
+    }
+
+    void stop() {
+        duration = System.nanoTime() - startTime;
+        gcTime = getGcTime() - startGcTime;
+
+        //The pools do not reach their peaks at the same time, so this is an upper bound of the peak of the heap
+        for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+            if(pool.getType() == MemoryType.HEAP)
+                peakHeap += pool.getPeakUsage().getUsed();
+    }
+
+    void record(Script.Event event, long nanos) {
+        latencies.computeIfAbsent(event, e -> new ArrayList<>()).add(nanos);
+    }
+
+    private static long getGcTime() {
+        long time = 0;
+        for(GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            time += Math.max(0, gc.getCollectionTime());
+        return time;
+    }
+
+    @Override
+    public String toString() {
+        ArrayList<Long> all = new ArrayList<>();
+        for(ArrayList<Long> l : latencies.values())
+            all.addAll(l);
+
+        return format(name, all, duration) + String.format(" %8d %6d", peakHeap / (1024 * 1024), gcTime);
+    }
+
+    //One line per type of event, without heap and GC which are only measured for the whole scenario
+    List<String> getEventLines() {
+        ArrayList<String> lines = new ArrayList<>();
+        for(Map.Entry<Script.Event, ArrayList<Long>> entry : latencies.entrySet()){
+            long eventDuration = 0;
+            for(long latency : entry.getValue())
+                eventDuration += latency;
+            lines.add(format("  " + entry.getKey().name().toLowerCase(), entry.getValue(), eventDuration));
+        }
+        return lines;
+    }
+
+    private static String format(String name, ArrayList<Long> latencies, long duration) {
+        long[] sorted = latencies.stream().mapToLong(Long::longValue).sorted().toArray();
+        double throughput = sorted.length / Math.max(duration / 1e9, 1e-9);
+
+        return String.format("%-10s %8d %10.1f %9.1f %9.1f %9.1f %9.1f %9.1f", name, sorted.length, throughput,
+                percentile(sorted, 50), percentile(sorted, 90), percentile(sorted, 99), percentile(sorted, 99.9),
+                percentile(sorted, 100));
+    }
+
+    //In microseconds, nearest rank
+    private static double percentile(long[] sorted, double percent) {
+        if(sorted.length == 0)
+            return 0;
+
+        int rank = (int) Math.ceil(percent / 100 * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))] / 1e3;
+    }
+}
+
+/**
+ * View that displays nothing: the dialogs get fixed answers
+ */
+class StubExplorerView implements ExplorerView {
+    private Object rootNode;
+    private Object selectedNode;
+
+    private int archiveCount = 0;
+
+    //Node the next event is run on, as if the user clicked it
+    void select(Object node) {
+        this.selectedNode = node;
+    }
+
+    @Override
+    public void setRootNode(Object rootNode) {
+        this.rootNode = rootNode;
+    }
+
+    @Override
+    public void refreshTree() {
+    }
+
+    @Override
+    public JTree getTree() {
+        return null;
+    }
+
+    @Override
+    public boolean isRootNodeSelected() {
+        return selectedNode == rootNode;
+    }
+
+    @Override
+    public void showPopupError(String message) {
+    }
+
+    @Override
+    public String folderMenuDialog() {
+        return "folder";
+    }
+
+    @Override
+    public String[] fileMenuDialog() {
+        return new String[]{"file.txt", "content"};
+    }
+
+    @Override
+    public String displayArchiveWindow1() {
+        return "archive" + archiveCount++;
+    }
+
+    @Override
+    public String displayArchiveWindow2() {
+        Archive.ArchiveTypes[] types = Archive.ArchiveTypes.values();
+        return types[archiveCount % types.length].getExtension();
+    }
+
+    @Override
+    public int displayArchiveWindow3() {
+        return 50;
+    }
+
+    @Override
+    public void clearText() {
+    }
+
+    @Override
+    public void appendText(String text) {
+    }
+
+    @Override
+    public void addMenuItem(String label, Consumer<Object> action) {
+    }
+
+    @Override
+    public String directoryDialog(String title) {
+        return null;
+    }
+
+    @Override
+    public String inputDialog(String message, String initialValue) {
+        return null;
+    }
+
+    @Override
+    public String editDialog(String title, String text) {
+        return null;
+    }
+
+    @Override
+    public int chooseDialog(String title, String[] options) {
+        return -1;
+    }
+}
@@ -69,4 +69,15 @@ class UserInfo extends LogDecorator {
         super(component);
         this.string = System.getProperty("user.name").toLowerCase();
     }
+}
+
+/**
+ * Decorator giving the level of the message
+ */
+class LevelInfo extends LogDecorator {
+
+    public LevelInfo(Logger.Level level, LogComponent component) {
+        super(component);
+        this.string = level.toString();
+    }
 }
\ No newline at end of file
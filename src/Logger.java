@@ -1,6 +1,58 @@
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
 public class Logger {
-    private static Logger INSTANCE;
-    private static LoggerWriter WRITER;
+    public enum Level {
+        DEBUG,
+        INFO,
+        WARNING,
+        ERROR
+    }
+
+    private static volatile Logger INSTANCE;
+    private static volatile LoggerWriter WRITER;
+
+    //Messages below this level are ignored before being formatted
+    private static volatile Level LEVEL = Level.INFO;
+
+    //Maximum number of messages per second for each call site using rate limiting
+    private static volatile int RATE_LIMIT = 10;
+
+    private ConcurrentHashMap<String, RateLimiter> rateLimiters = new ConcurrentHashMap<>();
+
+    /**
+     * Count the messages of a call site in windows of one second
+     */
+    private static class RateLimiter {
+        private static final long WINDOW = 1_000_000_000L;
+
+        private long windowStart = System.nanoTime();
+        private int count = 0;
+        private long suppressed = 0;
+
+        /**
+         * Ask to write a message
+         *
+         * @return -1 if the message must be dropped, otherwise the number of messages dropped since the last one
+         */
+        synchronized long acquire() {
+            long now = System.nanoTime();
+            if(now - windowStart >= WINDOW){
+                windowStart = now;
+                count = 0;
+            }
+
+            if(count >= RATE_LIMIT){
+                suppressed++;
+                return -1;
+            }
+
+            count++;
+            long dropped = suppressed;
+            suppressed = 0;
+            return dropped;
+        }
+    }
 
     private Logger(){}
 
@@ -10,7 +62,7 @@ public class Logger {
      * @param loggerWriter a LogWriter to write the logs
      * @throws InstantiationException if the logger was already instantiated
      */
-    public static void instantiate(LoggerWriter loggerWriter) throws InstantiationException {
+    public static synchronized void instantiate(LoggerWriter loggerWriter) throws InstantiationException {
         if(WRITER != null)
             throw new InstantiationException("Logger is already instantiated");
         WRITER = loggerWriter;
@@ -18,7 +70,7 @@ public class Logger {
     }
 
     //Get instance of the Logger (Singleton design pattern)
-    public static Logger getInstance() {
+    public static synchronized Logger getInstance() {
         if(INSTANCE == null){
             if(WRITER == null)
                 WRITER = new STDOutLogWriter();
@@ -29,9 +81,67 @@ public class Logger {
 
     }
 
+    //Set the minimum level of the messages written
+    public static void setLevel(Level level) {
+        LEVEL = level;
+    }
+
+    //Set the maximum number of messages per second of each rate limited call site
+    public static void setRateLimit(int messagesPerSecond) {
+        RATE_LIMIT = messagesPerSecond;
+    }
+
+    public boolean isEnabled(Level level) {
+        return level.compareTo(LEVEL) >= 0;
+    }
+
     //Write the string in the logs
     public void log(String s){
-        String l = new DateInfo(new UserInfo(new OSInfo(new LogMessage(s)))).getString();
+        log(Level.INFO, s);
+    }
+
+    //Write the string in the logs if its level is enabled
+    public void log(Level level, String s){
+        if(!isEnabled(level))
+            return;
+
+        write(level, s);
+    }
+
+    //Build and write the message only if its level is enabled
+    public void log(Level level, Supplier<String> message){
+        if(!isEnabled(level))
+            return;
+
+        write(level, message.get());
+    }
+
+    /**
+     * Write an exception in the logs, limiting the number of messages written per second for the call site
+     *
+     * @param level the level of the message
+     * @param site a name identifying the call site
+     * @param e the exception
+     */
+    public void log(Level level, String site, Throwable e){
+        if(!isEnabled(level))
+            return;
+
+        long dropped = rateLimiters.computeIfAbsent(site, k -> new RateLimiter()).acquire();
+        if(dropped < 0)
+            return;
+
+        if(dropped > 0)
+            write(level, site + ": " + dropped + " messages suppressed");
+        write(level, site + ": " + e.toString());
+
+        //The stack traces are only useful when debugging
+        if(isEnabled(Level.DEBUG))
+            e.printStackTrace();
+    }
+
+    private void write(Level level, String s){
+        String l = new DateInfo(new UserInfo(new OSInfo(new LevelInfo(level, new LogMessage(s))))).getString();
         WRITER.write(l);
     }
 
@@ -1,5 +1,15 @@
-import java.io.FileWriter;
-import java.io.IOException;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
 
 public interface LoggerWriter {
 
@@ -21,25 +31,179 @@ class STDOutLogWriter implements LoggerWriter {
     }
 }
 
-class FileLogWriter implements LoggerWriter{
+/**
+ * Writer appending the logs to a file through a buffer, starting a new file when the current one is too big or too old.
+ *
+ * The buffer is written to the file when it is full, every flushLines lines and every flushMillis milliseconds. The
+ * rotated files are compressed with gzip by a background thread.
+ */
+class RollingFileLogWriter implements LoggerWriter{
+    private static final int BUFFER_SIZE = 64 * 1024;
 
-    private FileWriter writer;
+    private File file;
+    private long maxSize;
+    private long maxAgeMillis;
+    private int flushLines;
 
-    public FileLogWriter(FileWriter writer) {
-        this.writer = writer;
+    private FileChannel channel;
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private long fileSize;
+    private long fileCreationTime;
+    private int pendingLines = 0;
+
+    //Flushes the buffer periodically
+    private ScheduledExecutorService background = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "log-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    //Compresses the rotated files, on its own thread so that a long compression does not delay the flushes
+    private ExecutorService compressor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "log-compressor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * @param file the file receiving the logs
+     * @param maxSize the size in bytes after which a new file is started
+     * @param maxAgeMillis the age in milliseconds after which a new file is started
+     * @param flushLines the number of lines after which the buffer is written to the file (1 to write every line)
+     * @param flushMillis the maximum time in milliseconds a line can stay in the buffer
+     * @throws IOException if the file cannot be opened
+     * @throws IllegalArgumentException if a size, age, number of lines or time is not positive
+     */
+    public RollingFileLogWriter(File file, long maxSize, long maxAgeMillis, int flushLines, long flushMillis)
+            throws IOException {
+        if(maxSize <= 0 || maxAgeMillis <= 0 || flushLines <= 0 || flushMillis <= 0)
+            throw new IllegalArgumentException("The sizes, ages, numbers of lines and times must be positive");
+
+        this.file = file;
+        this.maxSize = maxSize;
+        this.maxAgeMillis = maxAgeMillis;
+        this.flushLines = flushLines;
+
+        open();
+        background.scheduleWithFixedDelay(this::flushQuietly, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+
+        //Do not lose the buffered lines when the program exits
+        Runtime.getRuntime().addShutdownHook(new Thread(this::flushQuietly));
     }
 
     @Override
-    public boolean write(String s) {
+    public synchronized boolean write(String s) {
         try {
-            writer.write(s + "\n");
-            writer.flush();
+            //A failed rotation may have left the file closed
+            if(!channel.isOpen())
+                open();
+
+            if(fileSize >= maxSize || System.currentTimeMillis() - fileCreationTime >= maxAgeMillis)
+                rotate();
+
+            byte[] bytes = (s + "\n").getBytes(StandardCharsets.UTF_8);
+            if(bytes.length > buffer.remaining())
+                flush();
+
+            //Lines bigger than the buffer are written directly
+            if(bytes.length > buffer.capacity())
+                writeFully(ByteBuffer.wrap(bytes));
+            else
+                buffer.put(bytes);
+
+            fileSize += bytes.length;
+            if(++pendingLines >= flushLines)
+                flush();
         } catch (IOException e) {
             System.err.println(e.toString());
             return false;
         }
         return true;
     }
-}
 
+    private void open() throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        fileSize = channel.size();
+
+        //The age of a file the logs are appended to counts from its creation, not from the start of the program. The
+        //file systems without a creation time give the time of the last modification instead
+        fileCreationTime = Files.readAttributes(file.toPath(), BasicFileAttributes.class).creationTime().toMillis();
+    }
 
+    //The buffer is emptied even if the write fails: left flipped, it would no longer accept the next lines
+    private void flush() throws IOException {
+        buffer.flip();
+        try {
+            writeFully(buffer);
+        } finally {
+            buffer.clear();
+            pendingLines = 0;
+        }
+    }
+
+    private synchronized void flushQuietly() {
+        try {
+            flush();
+        } catch (IOException e) {
+            System.err.println(e.toString());
+        }
+    }
+
+    private void writeFully(ByteBuffer bytes) throws IOException {
+        while(bytes.hasRemaining())
+            channel.write(bytes);
+    }
+
+    //Close the current file, rename it with the time of the rotation and start a new one. If the file cannot be renamed,
+    //the logs go on in the same file and the rotation is tried again after another maxSize bytes or maxAgeMillis
+    private void rotate() throws IOException {
+        flush();
+        channel.close();
+
+        File rotated = rotatedFile();
+        boolean moved = false;
+        try {
+            Files.move(file.toPath(), rotated.toPath());
+            moved = true;
+            compressor.execute(() -> compress(rotated));
+        } catch (IOException e) {
+            System.err.println("Could not rotate " + file + ": " + e);
+        } finally {
+            open();
+        }
+
+        if(!moved){
+            fileSize = 0;
+            fileCreationTime = System.currentTimeMillis();
+        }
+    }
+
+    //Name of a rotated file, made unique when several rotations happen in the same millisecond
+    private File rotatedFile() {
+        String name = file.getPath() + "." + System.currentTimeMillis();
+        File rotated = new File(name);
+        for(int i = 1; rotated.exists() || new File(rotated.getPath() + ".gz").exists(); i++)
+            rotated = new File(name + "-" + i);
+        return rotated;
+    }
+
+    //Replace a rotated file by its gzip version
+    private static void compress(File rotated) {
+        File compressed = new File(rotated.getPath() + ".gz");
+
+        try (InputStream in = new FileInputStream(rotated);
+             OutputStream out = new GZIPOutputStream(new FileOutputStream(compressed))) {
+            byte[] bytes = new byte[BUFFER_SIZE];
+            int read;
+            while((read = in.read(bytes)) != -1)
+                out.write(bytes, 0, read);
+        } catch (IOException e) {
+            System.err.println(e.toString());
+            return;
+        }
+
+        if(!rotated.delete())
+            System.err.println("Could not delete " + rotated);
+    }
+}
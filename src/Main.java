@@ -1,19 +1,96 @@
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 
 public class Main {
+    private static final String JOURNAL_OPTION = "--journal=";
+    private static final String IMPORT_OPTION = "--import=";
+    private static final String EXPORT_OPTION = "--export=";
+    private static final String LOG_MAX_SIZE_OPTION = "--log-max-size=";
+    private static final String LOG_MAX_AGE_OPTION = "--log-max-age=";
+    private static final String LOG_FLUSH_LINES_OPTION = "--log-flush-lines=";
+    private static final String LOG_FLUSH_MS_OPTION = "--log-flush-ms=";
+    private static final String LOG_LEVEL_OPTION = "--log-level=";
+    private static final String LOG_RATE_OPTION = "--log-rate=";
+    private static final String CONTENT_BUDGET_OPTION = "--content-budget=";
+    private static final String SPILL_FILE_OPTION = "--spill-file=";
+
     public static void main(String[] args) {
-        if (args.length > 1) {
-            System.err.println("Max one argument is allowed");
+        String logFile = null;
+        String journalDirectory = null;
+        ArrayList<String> importDirectories = new ArrayList<>();
+        String exportDirectory = null;
+
+        //Rotation and flush policy of the log file
+        long logMaxSize = 10 * 1024 * 1024;
+        long logMaxAgeSeconds = 24 * 60 * 60;
+        int logFlushLines = 64;
+        long logFlushMillis = 1000;
+        //Maximum number of messages per second for each rate limited call site, the default of the logger
+        int logRate = 10;
+
+        try {
+            for (String arg : args) {
+                if (arg.startsWith(JOURNAL_OPTION))
+                    journalDirectory = arg.substring(JOURNAL_OPTION.length());
+                else if (arg.startsWith(IMPORT_OPTION))
+                    importDirectories.add(arg.substring(IMPORT_OPTION.length()));
+                else if (arg.startsWith(EXPORT_OPTION))
+                    exportDirectory = arg.substring(EXPORT_OPTION.length());
+                else if (arg.startsWith(LOG_MAX_SIZE_OPTION))
+                    logMaxSize = Long.parseLong(arg.substring(LOG_MAX_SIZE_OPTION.length()));
+                else if (arg.startsWith(LOG_MAX_AGE_OPTION))
+                    logMaxAgeSeconds = Long.parseLong(arg.substring(LOG_MAX_AGE_OPTION.length()));
+                else if (arg.startsWith(LOG_FLUSH_LINES_OPTION))
+                    logFlushLines = Integer.parseInt(arg.substring(LOG_FLUSH_LINES_OPTION.length()));
+                else if (arg.startsWith(LOG_FLUSH_MS_OPTION))
+                    logFlushMillis = Long.parseLong(arg.substring(LOG_FLUSH_MS_OPTION.length()));
+                else if (arg.startsWith(LOG_LEVEL_OPTION))
+                    Logger.setLevel(Logger.Level.valueOf(arg.substring(LOG_LEVEL_OPTION.length()).toUpperCase()));
+                else if (arg.startsWith(LOG_RATE_OPTION))
+                    logRate = Integer.parseInt(arg.substring(LOG_RATE_OPTION.length()));
+                else if (arg.startsWith(CONTENT_BUDGET_OPTION))
+                    //In MiB
+                    ContentStore.setBudget(Long.parseLong(arg.substring(CONTENT_BUDGET_OPTION.length())) * 1024 * 1024);
+                else if (arg.startsWith(SPILL_FILE_OPTION)) {
+                    //The spill file is scratch space, never an existing file
+                    File spillFile = new File(arg.substring(SPILL_FILE_OPTION.length()));
+                    if (spillFile.exists()) {
+                        System.err.println("The spill file already exists: " + spillFile);
+                        System.exit(1);
+                    }
+                    ContentStore.setSpillFile(spillFile);
+                }
+                else if (logFile == null)
+                    logFile = arg;
+                else {
+                    System.err.println("Max one log file is allowed");
+                    System.exit(1);
+                }
+            }
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid number in the arguments: " + e.getMessage());
+            System.exit(1);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Unknown log level, use one of DEBUG, INFO, WARNING, ERROR");
             System.exit(1);
         }
 
+        requirePositive(LOG_MAX_SIZE_OPTION, logMaxSize);
+        requirePositive(LOG_MAX_AGE_OPTION, logMaxAgeSeconds);
+        requirePositive(LOG_FLUSH_LINES_OPTION, logFlushLines);
+        requirePositive(LOG_FLUSH_MS_OPTION, logFlushMillis);
+        requirePositive(LOG_RATE_OPTION, logRate);
+        Logger.setRateLimit(logRate);
+
         try {
-            if(args.length == 1){
-                File file = new File(args[0]);
-                Logger.instantiate(new FileLogWriter(new FileWriter(file, true)));
+            if(logFile != null){
+                File file = new File(logFile);
+                //Ages too big to be counted in milliseconds mean no rotation on age
+                long logMaxAgeMillis = Math.min(logMaxAgeSeconds, Long.MAX_VALUE / 1000) * 1000;
+                Logger.instantiate(new RollingFileLogWriter(file, logMaxSize, logMaxAgeMillis, logFlushLines,
+                        logFlushMillis));
             }
             else
                 Logger.instantiate(new STDOutLogWriter());
@@ -21,6 +98,24 @@ public class Main {
             e.printStackTrace();
             Logger.getInstance().log(e.toString());
         }
-        GuiHandler.getInstance();
+        GuiHandler gui = GuiHandler.getInstance();
+
+        if(journalDirectory != null)
+            gui.openJournal(new File(journalDirectory));
+
+        for (String directory : importDirectories)
+            gui.importDirectory(Paths.get(directory));
+
+        //Once the tree is restored and imported
+        if(exportDirectory != null)
+            gui.exportTree(Paths.get(exportDirectory));
+    }
+
+    //Exit with a usage error if the value of an option is zero or negative
+    private static void requirePositive(String option, long value) {
+        if (value <= 0) {
+            System.err.println("Invalid " + option + value + ", the value must be positive");
+            System.exit(1);
+        }
     }
 }
@@ -1,10 +1,39 @@
-import java.util.ArrayList;
-import java.util.HashMap;
-
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.UnaryOperator;
+
+/**
+ * The tree can be read by several threads while it is modified. The writers are serialized by TREE_LOCK and only hold it
+ * for O(depth) updates plus the copy of the children of the folder they change, the readers never lock: the lists of
+ * children are copied on write, so a reader iterating over the children of a folder always sees a consistent snapshot
+ * of them. A reader walking a whole subtree while it may change (archive, export, copy, display) reads the children of
+ * all its folders at once with Folder.snapshotChildren, so that a node moved meanwhile is seen exactly once.
+ */
 public abstract class Node implements Cloneable{
-    protected int level = 0;
-    protected String name;
-    protected Node parent;
+    //Lock held by the threads modifying the tree
+    protected static final Object TREE_LOCK = new Object();
+
+    //Tags put in the hashes so that nodes of different types never have the same hash
+    protected static final byte FOLDER_HASH = 1;
+    protected static final byte FILE_HASH = 2;
+    protected static final byte ALIAS_HASH = 3;
+    protected static final byte ARCHIVE_HASH = 4;
+
+    protected volatile String name;
+    protected volatile Node parent;
+
+    //Hash of the content, computed when needed and kept until the content changes
+    protected volatile byte[] hash;
+
+    //Incremented each time the node or its subtree is modified
+    protected volatile long version = 0;
 
     public Node(String name) {
         this.name = name;
@@ -12,21 +41,114 @@ public abstract class Node implements Cloneable{
 
     public abstract void accept(NodeVisitor v);
 
-    public int getLevel() {
-        return level;
+    /**
+     * Add the content of the node to a digest. The name of the node is not part of its hash: it is part of the hash
+     * of its parent
+     *
+     * @param digest the digest computing the hash of the node
+     */
+    protected abstract void updateDigest(MessageDigest digest);
+
+    //Hash of the content of the node (and of its subtree for a folder)
+    public byte[] getHash() {
+        byte[] hash = this.hash;
+
+        if(hash == null){
+            long version = this.version;
+            MessageDigest digest = newDigest();
+            updateDigest(digest);
+            hash = digest.digest();
+
+            //Do not keep a hash computed while the node was being modified
+            synchronized (TREE_LOCK){
+                if(this.version == version)
+                    this.hash = hash;
+            }
+        }
+
+        return hash;
+    }
+
+    //Return true if the two nodes have the same content, whatever their names
+    public boolean sameContent(Node node) {
+        return Arrays.equals(getHash(), node.getHash());
+    }
+
+    //Update the version and forget the hash of the node and of its ancestors after a change. Must hold TREE_LOCK
+    protected void modified() {
+        for(Node n = this; n != null; n = n.parent){
+            n.version++;
+            n.hash = null;
+        }
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    protected static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            //Every implementation of Java must support SHA-256
+            throw new IllegalStateException(e);
+        }
     }
 
     public String getName() {
         return name;
     }
 
+    //Return true if a name can be written as one component of a path, on the disk or in an archive: a name holding a
+    //separator or made of dots would be written outside of the folder of the node
+    public static boolean isSafeName(String name) {
+        return !name.isEmpty() && !name.equals(".") && !name.equals("..") && name.indexOf('/') == -1
+                && name.indexOf('\\') == -1 && name.indexOf('\0') == -1;
+    }
+
     public Node getParent() {
         return parent;
     }
 
-    public void setParent(Node parent) {
-        this.parent = parent;
-        this.level = parent.getLevel() + 1;
+    //Size in bytes taken by the node
+    public long getSize() {
+        return 0;
+    }
+
+    //Return true if the node is the given node or one of its ancestors
+    public boolean isAncestorOf(Node node) {
+        for(Node n = node; n != null; n = n.parent)
+            if(n == this)
+                return true;
+        return false;
+    }
+
+    public void rename(String name) {
+        synchronized (TREE_LOCK){
+            this.name = name;
+
+            if(parent != null)
+                parent.modified();
+        }
+    }
+
+    /**
+     * Move the node (and its whole subtree) to another folder. The subtree is not visited: the cost is O(depth) for the
+     * statistics of the ancestors, plus O(siblings) to copy the lists of children of the old and the new parent
+     *
+     * @param destination the new parent of the node
+     * @throws IllegalArgumentException if the destination is the node itself or one of its descendants
+     */
+    public void moveTo(Folder destination) {
+        synchronized (TREE_LOCK){
+            if(this.isAncestorOf(destination))
+                throw new IllegalArgumentException("Cannot move a node inside itself");
+
+            if(parent != null)
+                ((Folder) parent).removeChild(this);
+
+            destination.addChild(this);
+        }
     }
 
     @Override
@@ -41,11 +163,13 @@ public abstract class Node implements Cloneable{
 }
 
 class Alias extends Node{
-    private FileNode fileNode;
+    private volatile FileNode fileNode;
 
     public Alias(String name, FileNode fileNode) {
         super(name);
         this.fileNode = fileNode;
+        if(fileNode != null)
+            fileNode.addAlias(this);
     }
 
     @Override
@@ -53,19 +177,92 @@ class Alias extends Node{
         v.visitAlias(this);
     }
 
+    @Override
+    protected void updateDigest(MessageDigest digest) {
+        digest.update(ALIAS_HASH);
+        digest.update(fileNode.getHash());
+    }
+
     public FileNode getFileNode() {
         return fileNode;
     }
+
+    public void setFileNode(FileNode fileNode) {
+        synchronized (TREE_LOCK){
+            if(this.fileNode != null)
+                this.fileNode.removeAlias(this);
+            this.fileNode = fileNode;
+            if(fileNode != null)
+                fileNode.addAlias(this);
+            modified();
+        }
+    }
+
+    //The copy points at the same file, it must also be told when the file changes
+    @Override
+    protected Object clone() throws CloneNotSupportedException {
+        Alias clone = (Alias) super.clone();
+        if(fileNode != null)
+            fileNode.addAlias(clone);
+        return clone;
+    }
 }
 
 
 //Class named FileNode and not File to avoid confusion with java.io.File
 class FileNode extends Node{
-    private String content;
+    private volatile String content;
+    private volatile long size;
+
+    //Content of the files that were edited or created in chunks, null if the content is a String or was evicted
+    private volatile Rope rope;
+
+    //True if the content is kept in chunks, even while it is evicted
+    private volatile boolean chunked;
+
+    //File of the disk the content is read from the first time it is needed, null if the content is in memory
+    private volatile Path source;
+
+    //Copy of the content in the spill file of the ContentStore, null if the content was never evicted
+    protected volatile ContentStore.Location spilled;
+
+    //Aliases pointing at the file: their hashes, and those of their ancestors, depend on its content. Weak, so that an
+    //alias no longer used is forgotten. Created with the first alias, most files have none. Guarded by TREE_LOCK
+    private Set<Alias> aliases;
 
     public FileNode(String name, String content) {
         super(name);
         this.content = content;
+        this.size = content.getBytes(StandardCharsets.UTF_8).length;
+        ContentStore.getInstance().touch(this, size);
+    }
+
+    //Create a file whose content is kept in chunks, for big or often edited files
+    public FileNode(String name, Rope content) {
+        super(name);
+        this.rope = content;
+        this.chunked = true;
+        this.size = content.getByteLength();
+        ContentStore.getInstance().touch(this, size);
+    }
+
+    //Used by the subclasses holding their content in another form
+    protected FileNode(String name, long size) {
+        super(name);
+        this.size = size;
+    }
+
+    /**
+     * Create a file whose content is only read from the disk when it is needed
+     *
+     * @param name the name of the file
+     * @param source the file on the disk holding the content
+     * @param size the size of the file on the disk
+     */
+    public FileNode(String name, Path source, long size) {
+        super(name);
+        this.source = source;
+        this.size = size;
     }
 
     @Override
@@ -73,20 +270,386 @@ class FileNode extends Node{
         v.visitFile(this);
     }
 
+    @Override
+    protected void updateDigest(MessageDigest digest) {
+        digest.update(FILE_HASH);
+
+        if(chunked)
+            getRope().utf8Chunks().forEachRemaining(digest::update);
+        else
+            digest.update(getContent().getBytes(StandardCharsets.UTF_8));
+    }
+
+    //Copy of the file under another name, sharing the content and its hash instead of computing it again
+    public FileNode copy(String name) {
+        try {
+            FileNode copy = (FileNode) this.clone();
+            copy.name = name;
+            copy.parent = null;
+
+            //The copy shares the content, but is evicted on its own
+            if(copy.content != null || copy.rope != null)
+                ContentStore.getInstance().touch(copy, size);
+            return copy;
+        } catch (CloneNotSupportedException e) {
+            //Node implements Cloneable
+            throw new IllegalStateException(e);
+        }
+    }
+
     public String getContent() {
+        if(chunked)
+            return getRope().toString();
+
+        String content = this.content;
+        if(content == null){
+            //Only one thread reads the file
+            synchronized (this){
+                if(this.content == null && !chunked){
+                    try {
+                        if(spilled != null)
+                            this.content = new String(ContentStore.getInstance().read(spilled), StandardCharsets.UTF_8);
+                        else{
+                            this.content = new String(Files.readAllBytes(source), StandardCharsets.UTF_8);
+                            source = null;
+                        }
+                    } catch (IOException e) {
+                        Logger.getInstance().log(Logger.Level.ERROR, "FileNode.getContent", e);
+                        return "";
+                    }
+                }
+
+                content = this.content;
+            }
+
+            //Edited meanwhile, the content is now in chunks
+            if(content == null)
+                return getRope().toString();
+        }
+
+        //Outside of the lock of the node: the store locks the nodes it evicts
+        ContentStore.getInstance().touch(this, size);
         return content;
     }
+
+    /**
+     * Drop the content from the heap, writing it to the spill file the first time it is evicted. Only called by the
+     * ContentStore
+     *
+     * @param store the store holding the spill file
+     * @return the number of bytes dropped from the heap
+     */
+    long evict(ContentStore store) {
+        synchronized (this){
+            String content = this.content;
+            Rope rope = this.rope;
+            if(content == null && rope == null)
+                return 0;
+
+            try {
+                //The chunks are written one at a time, a rope is never built in one array
+                if(spilled == null && rope != null)
+                    spilled = store.write(rope.utf8Chunks(), size);
+                else if(spilled == null)
+                    spilled = store.write(content.getBytes(StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                Logger.getInstance().log(Logger.Level.ERROR, "FileNode.evict", e);
+                return 0;
+            }
+
+            this.content = null;
+            this.rope = null;
+            return size;
+        }
+    }
+
+    @Override
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Write the content in UTF-8 without building it in one array: a file still on the disk is copied from it, the
+     * other contents are written one chunk at a time
+     *
+     * @param out the stream receiving the content
+     * @return the number of bytes written
+     * @throws IOException if the content cannot be read or written
+     */
+    public long writeTo(OutputStream out) throws IOException {
+        Path source = this.source;
+        if(source != null)
+            return Files.copy(source, out);
+
+        long written = 0;
+        for(Iterator<byte[]> chunks = getRope().utf8Chunks(); chunks.hasNext(); ){
+            byte[] chunk = chunks.next();
+            out.write(chunk);
+            written += chunk.length;
+        }
+        return written;
+    }
+
+    //File of the disk holding the content if it was not read yet, null otherwise
+    public Path getSource() {
+        return source;
+    }
+
+    //True if the content is kept in chunks
+    public boolean isChunked() {
+        return chunked;
+    }
+
+    //Content in chunks, the content of the other files is wrapped without being copied when it fits in one chunk
+    public Rope getRope() {
+        if(!chunked)
+            return Rope.of(getContent());
+
+        Rope rope = this.rope;
+        if(rope == null){
+            //Evicted: the chunks are rebuilt from the copy in the spill file
+            synchronized (this){
+                if(this.rope == null){
+                    try {
+                        this.rope = Rope.of(new String(ContentStore.getInstance().read(spilled), StandardCharsets.UTF_8));
+                    } catch (IOException e) {
+                        Logger.getInstance().log(Logger.Level.ERROR, "FileNode.getRope", e);
+                        return Rope.EMPTY;
+                    }
+                }
+                rope = this.rope;
+            }
+        }
+
+        ContentStore.getInstance().touch(this, size);
+        return rope;
+    }
+
+    /**
+     * Replace a part of the content. The first edit of a file moves its content into chunks, the following ones only
+     * rebuild the chunks they touch
+     *
+     * @param start the index of the first char replaced
+     * @param end the index after the last char replaced
+     * @param text the text inserted instead
+     * @throws IndexOutOfBoundsException if the part is not inside the content
+     */
+    public void replace(long start, long end, String text) {
+        edit(rope -> rope.replace(start, end, text));
+    }
+
+    public void insert(long index, String text) {
+        replace(index, index, text);
+    }
+
+    public void delete(long start, long end) {
+        replace(start, end, "");
+    }
+
+    public void append(String text) {
+        edit(rope -> rope.append(text));
+    }
+
+    //The content is read and edited before taking TREE_LOCK, as reading it may reload it from the spill file. The edit
+    //is done again if the file was modified meanwhile
+    private void edit(UnaryOperator<Rope> edit) {
+        while(true){
+            long version = this.version;
+            Rope edited = edit.apply(getRope());
+
+            synchronized (TREE_LOCK){
+                if(this.version == version){
+                    setRope(edited);
+                    return;
+                }
+            }
+        }
+    }
+
+    void addAlias(Alias alias) {
+        synchronized (TREE_LOCK){
+            if(aliases == null)
+                aliases = Collections.newSetFromMap(new WeakHashMap<>());
+            aliases.add(alias);
+        }
+    }
+
+    void removeAlias(Alias alias) {
+        synchronized (TREE_LOCK){
+            if(aliases != null)
+                aliases.remove(alias);
+        }
+    }
+
+    //The hashes of the aliases are forgotten with the hash of the file. Must hold TREE_LOCK
+    @Override
+    protected void modified() {
+        super.modified();
+        if(aliases != null)
+            for(Alias alias : aliases)
+                alias.modified();
+    }
+
+    //The aliases of the file do not point at the copy
+    @Override
+    protected Object clone() throws CloneNotSupportedException {
+        FileNode clone = (FileNode) super.clone();
+        clone.aliases = null;
+        return clone;
+    }
+
+    //Callers must hold TREE_LOCK
+    private void setRope(Rope edited) {
+        //The size of the file changes, so do the statistics of its ancestors
+        Folder parent = (Folder) this.parent;
+        if(parent != null)
+            parent.updateStatistics(this, -1);
+
+        //Under the lock of the node, so that a reload never sees the content half replaced
+        synchronized (this){
+            this.rope = edited;
+            this.chunked = true;
+            this.content = null;
+            this.source = null;
+            this.spilled = null;
+            this.size = edited.getByteLength();
+        }
+        ContentStore.getInstance().touch(this, size);
+
+        if(parent != null)
+            parent.updateStatistics(this, 1);
+        modified();
+    }
 }
 
 class Folder extends Node{
-    private ArrayList<Node> children = new ArrayList<>();
+    private CopyOnWriteArrayList<Node> children = new CopyOnWriteArrayList<>();
+
+    //Statistics of the whole subtree, kept up to date on each insertion
+    private volatile long size = 0;
+    private volatile int fileCount = 0;
+    private volatile int folderCount = 0;
+    private volatile int aliasCount = 0;
+    private volatile int archiveCount = 0;
 
     public Folder(String name) {
         super(name);
     }
 
+    //The parent of the child is set in the same critical section, a writer never sees a child without its parent.
+    //Copies the list of children: insert many children with addChildren
     public void addChild(Node child){
-        children.add(child);
+        synchronized (TREE_LOCK){
+            children.add(child);
+            child.parent = this;
+            updateStatistics(child, 1);
+            modified();
+        }
+    }
+
+    //Add several children at once, copying the list of children only once
+    public void addChildren(Collection<? extends Node> newChildren){
+        synchronized (TREE_LOCK){
+            children.addAll(newChildren);
+            for(Node child : newChildren){
+                child.parent = this;
+                updateStatistics(child, 1);
+            }
+            modified();
+        }
+    }
+
+    /**
+     * Add (sign = 1) or remove (sign = -1) the statistics of a child to this folder and all its ancestors
+     *
+     * @param child the child that was added or removed
+     * @param sign 1 if the child was added, -1 if it was removed
+     */
+    protected void updateStatistics(Node child, int sign){
+        long size = child.getSize();
+        int files = 0, folders = 0, aliases = 0, archives = 0;
+
+        if(child instanceof Folder){
+            Folder folder = (Folder) child;
+            files = folder.fileCount;
+            folders = folder.folderCount + 1;
+            aliases = folder.aliasCount;
+            archives = folder.archiveCount;
+        }
+        else if(child instanceof FileNode)
+            files = 1;
+        else if(child instanceof Alias)
+            aliases = 1;
+        else if(child instanceof Archive)
+            archives = 1;
+
+        for(Folder f = this; f != null; f = (Folder) f.parent){
+            f.size += sign * size;
+            f.fileCount += sign * files;
+            f.folderCount += sign * folders;
+            f.aliasCount += sign * aliases;
+            f.archiveCount += sign * archives;
+        }
+    }
+
+    public void removeChild(Node child){
+        synchronized (TREE_LOCK){
+            if(children.remove(child)){
+                updateStatistics(child, -1);
+                modified();
+            }
+        }
+    }
+
+    //Merkle hash: the hash of a folder is computed from the names and the hashes of its children
+    @Override
+    protected void updateDigest(MessageDigest digest) {
+        digest.update(FOLDER_HASH);
+
+        for(Node child : children){
+            digest.update(child.getName().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(child.getHash());
+        }
+    }
+
+    /**
+     * Compare the folder with another one. Subtrees with the same hash are skipped, so only the changed nodes are
+     * visited
+     *
+     * @param other the folder to compare with
+     * @return the paths (relative to the folders) of the nodes added, removed or modified in the other folder
+     */
+    public ArrayList<String> diff(Folder other){
+        ArrayList<String> changes = new ArrayList<>();
+        diffRec(this, other, "", changes);
+        return changes;
+    }
+
+    //Recursive call of diff
+    private static void diffRec(Folder before, Folder after, String prefix, ArrayList<String> changes){
+        if(before.sameContent(after))
+            return;
+
+        HashMap<String, Node> beforeChildren = new HashMap<>();
+        for(Node n : before.children)
+            beforeChildren.put(n.getName(), n);
+
+        for(Node n : after.children){
+            Node old = beforeChildren.remove(n.getName());
+            String path = prefix + n.getName();
+
+            if(old == null || old.getClass() != n.getClass())
+                changes.add(path);
+            else if(n instanceof Folder)
+                diffRec((Folder) old, (Folder) n, path + "/", changes);
+            else if(!old.sameContent(n))
+                changes.add(path);
+        }
+
+        //Remaining children were removed
+        for(String name : beforeChildren.keySet())
+            changes.add(prefix + name);
     }
 
     private String getCopyName(Node node, int copyNumber){
@@ -98,16 +661,77 @@ class Folder extends Node{
         v.visitFolder(this);
     }
 
-    public ArrayList<Node> getChildren() {
-        return children;
+    //The iterators of the list are snapshots, they are not affected by later modifications of the folder. The list is
+    //read-only, the children are changed through the folder
+    public List<Node> getChildren() {
+        return Collections.unmodifiableList(children);
+    }
+
+    //Children of the folders of the subtree, see snapshotChildren(Collection)
+    public Map<Folder, List<Node>> snapshotChildren() {
+        return snapshotChildren(Collections.singletonList(this));
+    }
+
+    /**
+     * Read the children of every folder of several subtrees at the same point, while holding TREE_LOCK: a node moved
+     * while a reader walks the subtrees is seen once, at its old or its new place. Only the lists are copied
+     *
+     * @param nodes the roots of the subtrees
+     * @return the children of each folder of the subtrees
+     */
+    public static Map<Folder, List<Node>> snapshotChildren(Collection<? extends Node> nodes) {
+        IdentityHashMap<Folder, List<Node>> snapshot = new IdentityHashMap<>();
+        ArrayDeque<Folder> folders = new ArrayDeque<>();
+
+        synchronized (TREE_LOCK){
+            for(Node node : nodes)
+                if(node instanceof Folder)
+                    folders.push((Folder) node);
+
+            while(!folders.isEmpty()){
+                Folder folder = folders.pop();
+                List<Node> children = Collections.unmodifiableList(Arrays.asList(folder.children.toArray(new Node[0])));
+                snapshot.put(folder, children);
+                for(Node child : children)
+                    if(child instanceof Folder)
+                        folders.push((Folder) child);
+            }
+        }
+
+        return snapshot;
+    }
+
+    @Override
+    public long getSize() {
+        return size;
+    }
+
+    public int getFileCount() {
+        return fileCount;
+    }
+
+    public int getFolderCount() {
+        return folderCount;
+    }
+
+    public int getAliasCount() {
+        return aliasCount;
+    }
+
+    public int getArchiveCount() {
+        return archiveCount;
     }
 
     @Override
     protected Object clone() throws CloneNotSupportedException {
         Folder clone = (Folder) super.clone();
-        clone.children = new ArrayList<>();
-        for(Node n : children)
-            clone.children.add((Node)n.clone());
+        ArrayList<Node> childrenClones = new ArrayList<>();
+        for(Node n : children){
+            Node childClone = (Node)n.clone();
+            childClone.parent = clone;
+            childrenClones.add(childClone);
+        }
+        clone.children = new CopyOnWriteArrayList<>(childrenClones);
         return clone;
     }
 }
@@ -151,10 +775,16 @@ class Archive extends Node{
         }
 
     }
-    private Object content;
+    private volatile Object content;
     private ArchiveTypes type;
     private int compressionLevel;
 
+    //Location of every file inside the archive, built on the first access to a single entry
+    private volatile List<Map.Entry<String, Object>> entryTable;
+
+    private volatile long compressedSize = 0;
+    private volatile long uncompressedSize = 0;
+
     public Archive(String name, ArchiveTypes type, int compressionLevel) {
         super(name);
         this.type = type;
@@ -166,8 +796,23 @@ class Archive extends Node{
         v.visitArchive(this);
     }
 
+    @Override
+    protected void updateDigest(MessageDigest digest) {
+        digest.update(ARCHIVE_HASH);
+        digest.update(type.getExtension().getBytes(StandardCharsets.UTF_8));
+        digest.update(getCompressor().getContentHash(content));
+    }
+
     public void setContent(Object content) {
-        this.content = content;
+        synchronized (TREE_LOCK){
+            this.content = content;
+            this.entryTable = null;
+            modified();
+
+            Compressor compressor = getCompressor();
+            this.compressedSize = compressor.getCompressedSize(content);
+            this.uncompressedSize = compressor.getUncompressedSize(content);
+        }
     }
 
     @Override
@@ -187,7 +832,67 @@ class Archive extends Node{
         return compressionLevel;
     }
 
+    //The size of an archive in the explorer is its compressed size
+    @Override
+    public long getSize() {
+        return compressedSize;
+    }
+
+    public long getCompressedSize() {
+        return compressedSize;
+    }
+
+    public long getUncompressedSize() {
+        return uncompressedSize;
+    }
+
     public Compressor getCompressor(){
         return type.getCompressor(this.compressionLevel);
     }
+
+    //Decompress the archive into a new folder named after the archive, without its extension
+    public Folder extract(){
+        String folderName = name;
+        if(folderName.endsWith(type.getExtension()))
+            folderName = folderName.substring(0, folderName.length() - type.getExtension().length());
+
+        return getCompressor().extract(folderName, content);
+    }
+
+    /**
+     * Decompress a single file of the archive without going through the rest of the archive. The files are designated
+     * by their index, because several files of an archive can have the same path
+     *
+     * @param index the index of the file in the list returned by getEntryPaths
+     * @return the content of the file
+     * @throws IndexOutOfBoundsException if there is no such file in the archive
+     * @throws IllegalStateException if the file cannot be decompressed
+     */
+    public String openEntry(int index){
+        return getCompressor().decompressEntry(getEntryTable().get(index).getValue());
+    }
+
+    //Paths of the files inside the archive whose compressed data is corrupted
+    public List<String> verify(){
+        return getCompressor().verify(content);
+    }
+
+    //Paths of all the files inside the archive, in the order of the archive
+    public List<String> getEntryPaths(){
+        ArrayList<String> paths = new ArrayList<>();
+        for(Map.Entry<String, Object> entry : getEntryTable())
+            paths.add(entry.getKey());
+        return paths;
+    }
+
+    //The table is never modified once built, so it can be read without lock
+    private List<Map.Entry<String, Object>> getEntryTable(){
+        List<Map.Entry<String, Object>> table = entryTable;
+        if(table == null){
+            table = getCompressor().buildEntryTable(content);
+            entryTable = table;
+        }
+
+        return table;
+    }
 }
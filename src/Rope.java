@@ -0,0 +1,271 @@
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Consumer;
+
+/**
+ * Immutable text stored as a balanced tree of chunks.
+ *
+ * An edit builds a new rope sharing all the chunks it does not touch with the old one, in O(log n) instead of copying
+ * the whole text like a String would. Copies of a file can therefore hold the same rope, and edit it independently.
+ *
+ * The tree is kept balanced like an AVL tree: the heights of the two children of a node differ by at most one.
+ */
+final class Rope {
+    //Size in chars of the chunks built from a String
+    public static final int CHUNK_SIZE = 8 * 1024;
+
+    public static final Rope EMPTY = new Rope("");
+
+    //Text of a leaf, null for the other nodes
+    private final String chunk;
+    private final Rope left;
+    private final Rope right;
+
+    private final int height;
+    private final long length;
+    private final long byteLength;
+
+    private Rope(String chunk) {
+        this.chunk = chunk;
+        this.left = null;
+        this.right = null;
+        this.height = 0;
+        this.length = chunk.length();
+        this.byteLength = utf8Length(chunk);
+    }
+
+    private Rope(Rope left, Rope right) {
+        this.chunk = null;
+        this.left = left;
+        this.right = right;
+        this.height = Math.max(left.height, right.height) + 1;
+        this.length = left.length + right.length;
+        this.byteLength = left.byteLength + right.byteLength;
+    }
+
+    //Build a rope from a text, cut in chunks of CHUNK_SIZE chars
+    public static Rope of(String text) {
+        if(text.length() <= CHUNK_SIZE)
+            return text.isEmpty() ? EMPTY : new Rope(text);
+
+        return build(text, 0, (text.length() + CHUNK_SIZE - 1) / CHUNK_SIZE);
+    }
+
+    //Balanced tree holding the chunks from first (included) to last (excluded)
+    private static Rope build(String text, int first, int last) {
+        if(last - first == 1)
+            return new Rope(text.substring(first * CHUNK_SIZE, Math.min(text.length(), last * CHUNK_SIZE)));
+
+        int middle = (first + last) / 2;
+        return new Rope(build(text, first, middle), build(text, middle, last));
+    }
+
+    //Number of chars
+    public long length() {
+        return length;
+    }
+
+    //Number of bytes once encoded in UTF-8
+    public long getByteLength() {
+        return byteLength;
+    }
+
+    public Rope append(String text) {
+        return concat(this, of(text));
+    }
+
+    public Rope insert(long index, String text) {
+        return replace(index, index, text);
+    }
+
+    public Rope delete(long start, long end) {
+        return replace(start, end, "");
+    }
+
+    /**
+     * Replace a part of the text
+     *
+     * @param start the index of the first char replaced
+     * @param end the index after the last char replaced
+     * @param text the text inserted instead
+     * @return the new rope
+     * @throws IndexOutOfBoundsException if the part is not inside the text
+     */
+    public Rope replace(long start, long end, String text) {
+        if(start < 0 || end > length || start > end)
+            throw new IndexOutOfBoundsException("[" + start + ", " + end + ") out of [0, " + length + ")");
+
+        Rope[] head = split(this, start);
+        Rope[] tail = split(head[1], end - start);
+        return concat(concat(head[0], of(text)), tail[1]);
+    }
+
+    public Rope substring(long start, long end) {
+        if(start < 0 || end > length || start > end)
+            throw new IndexOutOfBoundsException("[" + start + ", " + end + ") out of [0, " + length + ")");
+
+        return split(split(this, end)[0], start)[1];
+    }
+
+    //Cut a rope in two at an index
+    private static Rope[] split(Rope rope, long index) {
+        if(index <= 0)
+            return new Rope[]{EMPTY, rope};
+        if(index >= rope.length)
+            return new Rope[]{rope, EMPTY};
+
+        if(rope.chunk != null)
+            return new Rope[]{new Rope(rope.chunk.substring(0, (int) index)),
+                    new Rope(rope.chunk.substring((int) index))};
+
+        if(index < rope.left.length){
+            Rope[] parts = split(rope.left, index);
+            return new Rope[]{parts[0], concat(parts[1], rope.right)};
+        }
+
+        Rope[] parts = split(rope.right, index - rope.left.length);
+        return new Rope[]{concat(rope.left, parts[0]), parts[1]};
+    }
+
+    //Join two ropes, walking down the taller one until the heights match
+    private static Rope concat(Rope left, Rope right) {
+        if(left.length == 0)
+            return right;
+        if(right.length == 0)
+            return left;
+
+        if(left.height > right.height + 1)
+            return balance(left.left, concat(left.right, right));
+        if(right.height > left.height + 1)
+            return balance(concat(left, right.left), right.right);
+
+        //Small appends are merged into the last chunk instead of adding a leaf for each of them
+        if(left.chunk != null && right.chunk != null && left.length + right.length <= CHUNK_SIZE)
+            return new Rope(left.chunk + right.chunk);
+
+        return new Rope(left, right);
+    }
+
+    //Node holding two ropes whose heights differ by at most two, rotated if needed
+    private static Rope balance(Rope left, Rope right) {
+        if(left.height > right.height + 1){
+            if(left.left.height >= left.right.height)
+                return new Rope(left.left, new Rope(left.right, right));
+            return new Rope(new Rope(left.left, left.right.left), new Rope(left.right.right, right));
+        }
+
+        if(right.height > left.height + 1){
+            if(right.right.height >= right.left.height)
+                return new Rope(new Rope(left, right.left), right.right);
+            return new Rope(new Rope(left, right.left.left), new Rope(right.left.right, right.right));
+        }
+
+        return new Rope(left, right);
+    }
+
+    /**
+     * Iterate over the chunks of the text, in order, without building the whole text.
+     *
+     * A surrogate pair cut between two leaves is given in one chunk, so each chunk can be encoded on its own.
+     */
+    public Iterator<String> chunks() {
+        return new Iterator<String>() {
+            private ArrayDeque<Rope> stack = new ArrayDeque<>();
+            private String next;
+
+            {
+                if(length > 0)
+                    stack.push(Rope.this);
+                next = readChunk();
+            }
+
+            private String nextLeaf(){
+                while(!stack.isEmpty()){
+                    Rope rope = stack.pop();
+                    if(rope.chunk != null)
+                        return rope.chunk;
+                    stack.push(rope.right);
+                    stack.push(rope.left);
+                }
+                return null;
+            }
+
+            private String readChunk(){
+                String chunk = nextLeaf();
+                if(chunk == null || !Character.isHighSurrogate(chunk.charAt(chunk.length() - 1)))
+                    return chunk;
+
+                String following = nextLeaf();
+                if(following == null)
+                    return chunk;
+
+                //Give the low surrogate to this chunk, and put the rest of the leaf back
+                if(following.length() > 1)
+                    stack.push(new Rope(following.substring(1)));
+                return chunk + following.charAt(0);
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public String next() {
+                if(next == null)
+                    throw new NoSuchElementException();
+
+                String chunk = next;
+                next = readChunk();
+                return chunk;
+            }
+        };
+    }
+
+    public void forEachChunk(Consumer<String> action) {
+        chunks().forEachRemaining(action);
+    }
+
+    //Same as chunks, encoded in UTF-8
+    public Iterator<byte[]> utf8Chunks() {
+        Iterator<String> chunks = chunks();
+
+        return new Iterator<byte[]>() {
+            @Override
+            public boolean hasNext() {
+                return chunks.hasNext();
+            }
+
+            @Override
+            public byte[] next() {
+                return chunks.next().getBytes(StandardCharsets.UTF_8);
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder((int) Math.min(length, Integer.MAX_VALUE));
+        forEachChunk(builder::append);
+        return builder.toString();
+    }
+
+    //Size of a text in UTF-8, a surrogate counts for half of the 4 bytes of its pair
+    private static long utf8Length(String text) {
+        long length = 0;
+
+        for(int i = 0; i < text.length(); i++){
+            char c = text.charAt(i);
+            if(c < 0x80)
+                length += 1;
+            else if(c < 0x800 || Character.isSurrogate(c))
+                length += 2;
+            else
+                length += 3;
+        }
+
+        return length;
+    }
+}
@@ -0,0 +1,203 @@
+import javax.swing.JTree;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import javax.swing.tree.DefaultMutableTreeNode;
+import javax.swing.tree.DefaultTreeModel;
+import javax.swing.tree.TreePath;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Keep the JTree of the view in sync with the tree of nodes, without reloading the whole JTree after each operation.
+ *
+ * The operations can happen in any thread, they are only queued. The changes of the last COALESCE_DELAY milliseconds
+ * are then applied in the event dispatch thread: the nodes of the view are changed and the JTree is told about them in
+ * the same flush, so the JTree never holds a node it was not told about. The insertions are grouped by parent and sent
+ * as one event per parent, for the roots of the inserted subtrees only. The nodes of the view are found through the
+ * map of GUIAdapter, so the cost of an update depends on the size of the change, not on the size of the tree. If a node
+ * cannot be found in the view, the whole view is built again.
+ */
+class ViewUpdater {
+    private static final int COALESCE_DELAY = 50;
+
+    /**
+     * A change waiting to be sent to the JTree
+     */
+    private static class Change {
+        private enum Type {
+            INSERT,
+            MOVE,
+            CHANGE
+        }
+
+        private Type type;
+        private Node node;
+
+        //New parent of a moved node
+        private Folder destination;
+
+        Change(Type type, Node node, Folder destination) {
+            this.type = type;
+            this.node = node;
+            this.destination = destination;
+        }
+    }
+
+    private ExplorerView esv;
+    private GUIAdapter guiAdapter;
+
+    //Filled by any thread, emptied by the event dispatch thread
+    private ConcurrentLinkedQueue<Change> changes = new ConcurrentLinkedQueue<>();
+    private AtomicBoolean scheduled = new AtomicBoolean(false);
+    private Timer timer;
+
+    public ViewUpdater(ExplorerView esv, GUIAdapter guiAdapter) {
+        this.esv = esv;
+        this.guiAdapter = guiAdapter;
+
+        timer = new Timer(COALESCE_DELAY, e -> flush());
+        timer.setRepeats(false);
+    }
+
+    /**
+     * Show a node that was just added to the tree, with its subtree
+     *
+     * @param node the inserted node
+     */
+    public void inserted(Node node) {
+        queue(new Change(Change.Type.INSERT, node, null));
+    }
+
+    /**
+     * Move a node of the view under another node
+     *
+     * @param node the node to move
+     * @param destination the new parent of the node
+     */
+    public void moved(Node node, Folder destination) {
+        queue(new Change(Change.Type.MOVE, node, destination));
+    }
+
+    //Repaint a node whose name or size changed
+    public void changed(Node node) {
+        queue(new Change(Change.Type.CHANGE, node, null));
+    }
+
+    private void queue(Change change) {
+        changes.add(change);
+
+        //Start the window of COALESCE_DELAY milliseconds, if it is not already started
+        if(scheduled.compareAndSet(false, true))
+            SwingUtilities.invokeLater(timer::start);
+    }
+
+    //Apply the pending changes to the nodes of the view and send them to the JTree. Runs in the event dispatch thread
+    private void flush() {
+        //The changes queued from now on need another flush
+        scheduled.set(false);
+
+        DefaultTreeModel model = guiAdapter.getModel();
+        if(model == null){
+            //Nothing is displayed
+            changes.clear();
+            return;
+        }
+
+        //Roots of the inserted subtrees, by parent. They are the last children of their parent until they are sent
+        LinkedHashMap<DefaultMutableTreeNode, ArrayList<DefaultMutableTreeNode>> inserted = new LinkedHashMap<>();
+        LinkedHashSet<DefaultMutableTreeNode> changed = new LinkedHashSet<>();
+        boolean needsRebuild = false;
+
+        for(Change change = changes.poll(); change != null; change = changes.poll()){
+            switch (change.type){
+                case INSERT:
+                    //Already shown with one of its ancestors
+                    if(guiAdapter.getTreeNode(change.node) != null)
+                        break;
+
+                    DefaultMutableTreeNode parent = guiAdapter.getTreeNode(change.node.getParent());
+                    if(parent == null){
+                        needsRebuild = true;
+                        break;
+                    }
+
+                    DefaultMutableTreeNode treeNode = guiAdapter.buildTreeNode(change.node);
+                    parent.add(treeNode);
+                    inserted.computeIfAbsent(parent, p -> new ArrayList<>()).add(treeNode);
+                    break;
+
+                case MOVE:
+                    //The JTree must know the nodes inserted before, they may be the moved node or its destination
+                    announce(model, inserted);
+                    inserted.clear();
+
+                    DefaultMutableTreeNode moved = guiAdapter.getTreeNode(change.node);
+                    DefaultMutableTreeNode destination = guiAdapter.getTreeNode(change.destination);
+                    if(moved == null || destination == null || moved.getParent() == null){
+                        needsRebuild = true;
+                        break;
+                    }
+
+                    model.removeNodeFromParent(moved);
+                    model.insertNodeInto(moved, destination, destination.getChildCount());
+                    expand(destination, moved);
+                    break;
+
+                case CHANGE:
+                    DefaultMutableTreeNode edited = guiAdapter.getTreeNode(change.node);
+                    if(edited != null)
+                        changed.add(edited);
+                    break;
+            }
+        }
+
+        if(needsRebuild){
+            guiAdapter.rebuild();
+            esv.refreshTree();
+            return;
+        }
+
+        announce(model, inserted);
+
+        for(DefaultMutableTreeNode treeNode : changed)
+            model.nodeChanged(treeNode);
+    }
+
+    //Send one event per parent for the inserted nodes, the descendants of an inserted node come with it
+    private void announce(DefaultTreeModel model, LinkedHashMap<DefaultMutableTreeNode,
+            ArrayList<DefaultMutableTreeNode>> inserted) {
+        for(Map.Entry<DefaultMutableTreeNode, ArrayList<DefaultMutableTreeNode>> entry : inserted.entrySet()){
+            DefaultMutableTreeNode parent = entry.getKey();
+
+            int first = parent.getChildCount() - entry.getValue().size();
+            int[] indices = new int[entry.getValue().size()];
+            for(int i = 0; i < indices.length; i++)
+                indices[i] = first + i;
+            model.nodesWereInserted(parent, indices);
+
+            for(DefaultMutableTreeNode treeNode : entry.getValue())
+                expand(parent, treeNode);
+        }
+    }
+
+    //The view shows every node expanded, do the same for the new nodes only
+    private void expand(DefaultMutableTreeNode parent, DefaultMutableTreeNode treeNode) {
+        JTree tree = guiAdapter.getTree();
+        if(tree == null)
+            return;
+
+        tree.expandPath(new TreePath(parent.getPath()));
+
+        Enumeration<?> subtree = treeNode.preorderEnumeration();
+        while(subtree.hasMoreElements()){
+            DefaultMutableTreeNode n = (DefaultMutableTreeNode) subtree.nextElement();
+            if(n.getChildCount() > 0)
+                tree.expandPath(new TreePath(n.getPath()));
+        }
+    }
+}